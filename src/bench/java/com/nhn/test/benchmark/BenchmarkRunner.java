@@ -0,0 +1,88 @@
+package com.nhn.test.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks once per thread count, because JMH only accepts a single thread count per run.
+ *
+ * <pre>
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.args="-threads 1,8,64,512 -include ConcurrentBagBench"
+ * </pre>
+ *
+ * Thread counts default to 1 .. 4 x available processors in powers of two, which for the default bag sizes (4 to 256)
+ * covers thread counts both below and above the number of entries.
+ */
+public final class BenchmarkRunner {
+    private static final String USAGE = "Usage: BenchmarkRunner [-include <regex>] [-threads <n,n,...>] [-results <prefix>] [-p <param=v,v;param=v>]";
+
+    private BenchmarkRunner() {
+        // unconstructable
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = ConcurrentBagBench.class.getSimpleName();
+        String threads = null;
+        String resultPrefix = "target/jmh-";
+        String[] params = new String[0];
+
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Option " + args[args.length - 1] + " has no value. " + USAGE);
+        }
+
+        for (int i = 0; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "-include":
+                    include = args[i + 1];
+                    break;
+                case "-threads":
+                    threads = args[i + 1];
+                    break;
+                case "-results":
+                    resultPrefix = args[i + 1];
+                    break;
+                case "-p":
+                    params = args[i + 1].split(";");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i] + ". " + USAGE);
+            }
+        }
+
+        for (int threadCount : parseThreadCounts(threads)) {
+            final ChainedOptionsBuilder builder = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .result(resultPrefix + include + "-t" + threadCount + ".json")
+                    .resultFormat(ResultFormatType.JSON);
+
+            for (String param : params) {
+                final String[] kv = param.split("=", 2);
+                builder.param(kv[0], kv[1].split(","));
+            }
+
+            new Runner(builder.build()).run();
+        }
+    }
+
+    private static int[] parseThreadCounts(final String threads) {
+        if (threads != null) {
+            final String[] parts = threads.split(",");
+            final int[] counts = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                counts[i] = Integer.parseInt(parts[i].trim());
+            }
+            return counts;
+        }
+
+        final int max = Runtime.getRuntime().availableProcessors() * 4;
+        final int[] counts = new int[32 - Integer.numberOfLeadingZeros(max)];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 1 << i;
+        }
+        return counts;
+    }
+}
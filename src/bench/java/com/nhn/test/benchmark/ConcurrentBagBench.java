@@ -0,0 +1,59 @@
+package com.nhn.test.benchmark;
+
+import com.nhn.test.mocks.StubBagEntry;
+import com.nhn.test.util.ConcurrentBag;
+import com.nhn.test.util.ConcurrentBag.IConcurrentBagEntry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ConcurrentBag#borrow(long, TimeUnit)} / {@link ConcurrentBag#requite(IConcurrentBagEntry)}
+ * round trips.  Thread count is supplied by {@link BenchmarkRunner} (or {@code -t} on the JMH command line) so
+ * that the same bag sizes can be run with fewer and with more threads than there are entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class ConcurrentBagBench {
+    @Param({"4", "16", "64", "256"})
+    public int bagSize;
+
+    /** CPU work (in {@link Blackhole#consumeCPU(long)} tokens) done while an entry is held. */
+    @Param({"0"})
+    public int holdTokens;
+
+    @Param({"5000"})
+    public long borrowTimeoutMs;
+
+    private ConcurrentBag<StubBagEntry> bag;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bag = new ConcurrentBag<>(waiting -> {});
+        for (int i = 0; i < bagSize; i++) {
+            bag.add(new StubBagEntry());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        bag.close();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public StubBagEntry borrowRequite() throws InterruptedException {
+        final StubBagEntry entry = bag.borrow(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+        if (entry != null) {
+            if (holdTokens > 0) {
+                Blackhole.consumeCPU(holdTokens);
+            }
+            bag.requite(entry);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,225 @@
+package com.nhn.test.benchmark;
+
+import com.nhn.test.TestConfig;
+import com.nhn.test.TestDataSource;
+import com.nhn.test.TestPoolMXBean;
+import com.nhn.test.mocks.StubDataSource;
+import com.nhn.test.mocks.StubLatency;
+import com.nhn.test.mocks.StubStatement;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * End-to-end pool benchmark: worker threads borrow a connection from a {@link TestDataSource}, execute one statement
+ * against a latency-simulating {@link StubDataSource} and return the connection, for a fixed duration.
+ *
+ * <pre>
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=com.nhn.test.benchmark.PoolBenchmarkHarness \
+ *       -Dbenchmark.args="threads=64 poolSize=16 seconds=30 connectLatency=50-150 queryLatency=exp:1:5:50"
+ * </pre>
+ *
+ * Options (key=value):
+ * <ul>
+ *   <li>threads, poolSize, minIdle, seconds, warmupSeconds, connectionTimeout (ms)</li>
+ *   <li>connectLatency, queryLatency - see {@link StubLatency#parse(String)}</li>
+ *   <li>connectFailureRate, queryFailureRate (0.0 - 1.0), queryFailureSqlState</li>
+ * </ul>
+ */
+public final class PoolBenchmarkHarness {
+    private PoolBenchmarkHarness() {
+        // unconstructable
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = defaults();
+        for (String arg : args) {
+            final String[] kv = arg.split("=", 2);
+            if (kv.length != 2 || !options.containsKey(kv[0])) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected one of " + options.keySet());
+            }
+            options.put(kv[0], kv[1]);
+        }
+
+        final int threads = Integer.parseInt(options.get("threads"));
+        final long warmupNanos = SECONDS.toNanos(Long.parseLong(options.get("warmupSeconds")));
+        final long runNanos = SECONDS.toNanos(Long.parseLong(options.get("seconds")));
+
+        final StubDataSource stubDataSource = new StubDataSource();
+        stubDataSource.setConnectLatency(StubLatency.parse(options.get("connectLatency")));
+        stubDataSource.setConnectFailureRate(Double.parseDouble(options.get("connectFailureRate")));
+        StubStatement.setSimulatedQueryLatency(StubLatency.parse(options.get("queryLatency")));
+        StubStatement.setQueryFailure(Double.parseDouble(options.get("queryFailureRate")), options.get("queryFailureSqlState"));
+
+        final TestConfig config = new TestConfig();
+        config.setPoolName("harness");
+        config.setDataSource(stubDataSource);
+        config.setMaximumPoolSize(Integer.parseInt(options.get("poolSize")));
+        config.setMinimumIdle(Integer.parseInt(options.get("minIdle")));
+        config.setConnectionTimeout(Long.parseLong(options.get("connectionTimeout")));
+        config.setInitializationFailTimeout(-1);
+
+        System.out.println("Options: " + options);
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final Worker[] workers = new Worker[threads];
+            final CountDownLatch done = new CountDownLatch(threads);
+            final long startTime = System.nanoTime();
+            final long measureFrom = startTime + warmupNanos;
+            final long endTime = measureFrom + runNanos;
+
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(ds, measureFrom, endTime, done);
+                final Thread thread = new Thread(workers[i], "harness-worker-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            done.await();
+
+            report(workers, runNanos, ds.getTestPoolMXBean());
+
+            int died = 0;
+            Throwable failure = null;
+            for (Worker worker : workers) {
+                if (worker.failure != null) {
+                    died++;
+                    failure = worker.failure;
+                }
+            }
+            if (died > 0) {
+                throw new IllegalStateException(died + " of " + threads + " workers died, the results are invalid", failure);
+            }
+        }
+    }
+
+    private static Map<String, String> defaults() {
+        final Map<String, String> options = new LinkedHashMap<>();
+        options.put("threads", "32");
+        options.put("poolSize", "10");
+        options.put("minIdle", "10");
+        options.put("seconds", "20");
+        options.put("warmupSeconds", "5");
+        options.put("connectionTimeout", "5000");
+        options.put("connectLatency", "50-150");
+        options.put("queryLatency", "1-50");
+        options.put("connectFailureRate", "0");
+        options.put("queryFailureRate", "0");
+        options.put("queryFailureSqlState", "08S01");
+        return options;
+    }
+
+    private static void report(final Worker[] workers, final long runNanos, final TestPoolMXBean pool) {
+        long count = 0;
+        long timeouts = 0;
+        long errors = 0;
+        for (Worker worker : workers) {
+            count += worker.count;
+            timeouts += worker.timeouts.sum();
+            errors += worker.errors.sum();
+        }
+
+        final long[] waits = new long[(int) count];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.waits, 0, waits, offset, worker.count);
+            offset += worker.count;
+        }
+        Arrays.sort(waits);
+
+        final double seconds = runNanos / 1e9;
+        System.out.printf("%nCompleted borrows : %d (%.1f/s)%n", count, count / seconds);
+        System.out.printf("Timeouts          : %d (%.1f/s)%n", timeouts, timeouts / seconds);
+        System.out.printf("Other errors      : %d%n", errors);
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                System.out.printf("Worker died       : %s%n", worker.failure);
+            }
+        }
+        System.out.printf("Borrow wait (ms)  : p50=%.3f p99=%.3f p999=%.3f max=%.3f%n",
+                percentileMillis(waits, 0.50), percentileMillis(waits, 0.99), percentileMillis(waits, 0.999), percentileMillis(waits, 1.0));
+        System.out.printf("Pool at end       : total=%d active=%d idle=%d waiting=%d%n",
+                pool.getTotalConnections(), pool.getActiveConnections(), pool.getIdleConnections(), pool.getThreadsAwaitingConnection());
+    }
+
+    private static double percentileMillis(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+
+        final int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / (double) MILLISECONDS.toNanos(1);
+    }
+
+    private static final class Worker implements Runnable {
+        private final TestDataSource dataSource;
+        private final long measureFrom;
+        private final long endTime;
+        private final CountDownLatch done;
+
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        volatile Throwable failure;
+        long[] waits = new long[1024];
+        int count;
+
+        Worker(final TestDataSource dataSource, final long measureFrom, final long endTime, final CountDownLatch done) {
+            this.dataSource = dataSource;
+            this.measureFrom = measureFrom;
+            this.endTime = endTime;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (long start = System.nanoTime(); start < endTime; start = System.nanoTime()) {
+                    final boolean measured = start >= measureFrom;
+                    try (Connection connection = dataSource.getConnection()) {
+                        if (measured) {
+                            record(System.nanoTime() - start);
+                        }
+
+                        try (Statement statement = connection.createStatement()) {
+                            statement.execute("SELECT 1");
+                        }
+                    }
+                    catch (SQLTransientConnectionException e) {
+                        if (measured) {
+                            timeouts.increment();
+                        }
+                    }
+                    catch (SQLException | RuntimeException e) {
+                        if (measured) {
+                            errors.increment();
+                        }
+                    }
+                }
+            }
+            catch (Throwable t) {
+                failure = t;
+                t.printStackTrace();
+            }
+            finally {
+                done.countDown();
+            }
+        }
+
+        private void record(final long waitNanos) {
+            if (count == waits.length) {
+                waits = Arrays.copyOf(waits, count * 2);
+            }
+            waits[count++] = waitNanos;
+        }
+    }
+}
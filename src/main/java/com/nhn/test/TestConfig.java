@@ -69,6 +69,24 @@ public class TestConfig implements TestConfigMXBean {
     private boolean isIsolateInternalQueries;
     private boolean isRegisterMbeans;
     private boolean isAllowPoolSuspension;
+    private boolean isAdaptivePoolSizing;
+    private boolean isBlockUntilFilled;
+    private int connectionCreationConcurrency;
+    private int connectionCreationRateLimit;
+    private int circuitBreakerFailureThreshold;
+    private long circuitBreakerOpenTimeout;
+    private int maximumWaitingRequests;
+    private boolean isLoadShedding;
+    private int tenantMaximumConnections;
+    private int tenantMinimumConnections;
+    private boolean isLazyStateReset;
+    private boolean isStatementStatistics;
+    private long slowQueryThreshold;
+    private int holdTimeSampleRate;
+    private int preparedStatementCacheSize;
+    private int leakDetectionSampleRate;
+    private long backgroundValidationPeriod;
+    private int backgroundValidationConcurrency;
     private DataSource dataSource;
     private Properties dataSourceProperties;
     private ThreadFactory threadFactory;
@@ -90,6 +108,9 @@ public class TestConfig implements TestConfigMXBean {
         validationTimeout = VALIDATION_TIMEOUT;
         idleTimeout = IDLE_TIMEOUT;
         initializationFailTimeout = 1;
+        backgroundValidationConcurrency = 2;
+        connectionCreationConcurrency = 1;
+        circuitBreakerOpenTimeout = SECONDS.toMillis(5);
         isAutoCommit = true;
 
         String systemProp = System.getProperty("testcp.configurationFile");
@@ -351,6 +372,255 @@ public class TestConfig implements TestConfigMXBean {
         this.isAllowPoolSuspension = isAllowPoolSuspension;
     }
 
+    public boolean isAdaptivePoolSizing() {
+        return isAdaptivePoolSizing;
+    }
+
+    /**
+     * Let the pool adjust its effective maximum size between minimumIdle and maximumPoolSize from the observed borrow
+     * wait, waiting threads and utilization.  Has no effect on a fixed size pool (minimumIdle equal to
+     * maximumPoolSize).
+     *
+     * @param isAdaptivePoolSizing true to enable adaptive pool sizing, default false
+     */
+    public void setAdaptivePoolSizing(boolean isAdaptivePoolSizing) {
+        checkIfSealed();
+        this.isAdaptivePoolSizing = isAdaptivePoolSizing;
+    }
+
+    public boolean isBlockUntilFilled() {
+        return isBlockUntilFilled;
+    }
+
+    /**
+     * Make pool construction wait until minimumIdle connections have been created, for up to
+     * initializationFailTimeout (or connectionTimeout if that is not greater than 1ms).  Combine with
+     * connectionCreationConcurrency to fill a large pool quickly.
+     *
+     * @param isBlockUntilFilled true to block pool start until it is filled, default false
+     */
+    public void setBlockUntilFilled(boolean isBlockUntilFilled) {
+        checkIfSealed();
+        this.isBlockUntilFilled = isBlockUntilFilled;
+    }
+
+    public int getConnectionCreationConcurrency() {
+        return connectionCreationConcurrency;
+    }
+
+    /**
+     * Set the maximum number of connections created at the same time, both while filling the pool and when refilling
+     * it under a burst of borrowers.
+     *
+     * @param connectionCreationConcurrency the number of connection adder threads, default 1
+     */
+    public void setConnectionCreationConcurrency(int connectionCreationConcurrency) {
+        checkIfSealed();
+        if (connectionCreationConcurrency < 1) {
+            throw new IllegalArgumentException("connectionCreationConcurrency cannot be less than 1");
+        }
+
+        this.connectionCreationConcurrency = connectionCreationConcurrency;
+    }
+
+    public int getConnectionCreationRateLimit() {
+        return connectionCreationRateLimit;
+    }
+
+    /**
+     * Limit the number of new connections opened per second, with bursts of up to one second's worth.
+     *
+     * @param connectionCreationRateLimit connections per second, or 0 (the default) for no limit
+     */
+    public void setConnectionCreationRateLimit(int connectionCreationRateLimit) {
+        checkIfSealed();
+        if (connectionCreationRateLimit < 0) {
+            throw new IllegalArgumentException("connectionCreationRateLimit cannot be negative");
+        }
+
+        this.connectionCreationRateLimit = connectionCreationRateLimit;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * Set the number of consecutive connection failures after which no new connection is attempted for
+     * circuitBreakerOpenTimeout, after which a single attempt probes the database.  While the breaker is open,
+     * getConnection() fails immediately with the last failure as the cause if no idle connection is available.
+     *
+     * @param circuitBreakerFailureThreshold the number of consecutive failures, or 0 (the default) to disable
+     */
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        checkIfSealed();
+        if (circuitBreakerFailureThreshold < 0) {
+            throw new IllegalArgumentException("circuitBreakerFailureThreshold cannot be negative");
+        }
+
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public long getCircuitBreakerOpenTimeout() {
+        return circuitBreakerOpenTimeout;
+    }
+
+    /**
+     * @param circuitBreakerOpenTimeoutMs how long the circuit breaker stays open before probing, default 5000ms
+     */
+    public void setCircuitBreakerOpenTimeout(long circuitBreakerOpenTimeoutMs) {
+        checkIfSealed();
+        if (circuitBreakerOpenTimeoutMs < 0) {
+            throw new IllegalArgumentException("circuitBreakerOpenTimeout cannot be negative");
+        }
+
+        this.circuitBreakerOpenTimeout = circuitBreakerOpenTimeoutMs;
+    }
+
+    public int getMaximumWaitingRequests() {
+        return maximumWaitingRequests;
+    }
+
+    /**
+     * Set the maximum number of requests waiting for a connection when none is idle.  Further requests are rejected
+     * immediately with a {@link com.nhn.test.pool.TestPool.ConnectionRejectedException}.
+     *
+     * @param maximumWaitingRequests the maximum number of waiters, or 0 (the default) for no limit
+     */
+    public void setMaximumWaitingRequests(int maximumWaitingRequests) {
+        checkIfSealed();
+        if (maximumWaitingRequests < 0) {
+            throw new IllegalArgumentException("maximumWaitingRequests cannot be negative");
+        }
+
+        this.maximumWaitingRequests = maximumWaitingRequests;
+    }
+
+    public boolean isLoadShedding() {
+        return isLoadShedding;
+    }
+
+    /**
+     * Reject a request immediately, with a {@link com.nhn.test.pool.TestPool.ConnectionRejectedException}, when no
+     * connection is idle, the pool is at its maximum size and the wait expected from the recent rate of returned
+     * connections exceeds its timeout.
+     *
+     * @param isLoadShedding true to enable load shedding, default false
+     */
+    public void setLoadShedding(boolean isLoadShedding) {
+        checkIfSealed();
+        this.isLoadShedding = isLoadShedding;
+    }
+
+    public int getTenantMaximumConnections() {
+        return tenantMaximumConnections;
+    }
+
+    /**
+     * Set the maximum number of connections bound to one tenant by
+     * {@link com.nhn.test.TestDataSource#getTenantConnection(String)}.  All tenants share maximumPoolSize.
+     *
+     * @param tenantMaximumConnections the per-tenant maximum, or 0 (the default) for no per-tenant limit
+     */
+    public void setTenantMaximumConnections(int tenantMaximumConnections) {
+        checkIfSealed();
+        if (tenantMaximumConnections < 0) {
+            throw new IllegalArgumentException("tenantMaximumConnections cannot be negative");
+        }
+
+        this.tenantMaximumConnections = tenantMaximumConnections;
+    }
+
+    public int getTenantMinimumConnections() {
+        return tenantMinimumConnections;
+    }
+
+    /**
+     * Set the number of connections a tenant keeps bound to it: an idle connection of a tenant with this many
+     * connections or fewer is not switched to another tenant.
+     *
+     * @param tenantMinimumConnections the per-tenant minimum, default 0; at most tenantMaximumConnections if that is set
+     */
+    public void setTenantMinimumConnections(int tenantMinimumConnections) {
+        checkIfSealed();
+        if (tenantMinimumConnections < 0) {
+            throw new IllegalArgumentException("tenantMinimumConnections cannot be negative");
+        }
+
+        this.tenantMinimumConnections = tenantMinimumConnections;
+    }
+
+    public boolean isLazyStateReset() {
+        return isLazyStateReset;
+    }
+
+    /**
+     * Defer resetting the state a borrower changed (autoCommit, readOnly, isolation, catalog, schema, network timeout)
+     * from {@code Connection.close()} to the next borrower's first use of the connection.  A reset is skipped when the
+     * next borrower sets the same property itself, and a property the next borrower sets back to the connection's
+     * actual value costs no driver call.  A rollback of an open transaction still happens on close.
+     *
+     * @param isLazyStateReset true to defer state resets, default false
+     */
+    public void setLazyStateReset(boolean isLazyStateReset) {
+        checkIfSealed();
+        this.isLazyStateReset = isLazyStateReset;
+    }
+
+    public boolean isStatementStatistics() {
+        return isStatementStatistics;
+    }
+
+    /**
+     * Time every statement execution and aggregate the timings by SQL fingerprint, the SQL with its literals replaced
+     * by {@code ?}.  The statistics are available from {@code TestPool.getStatementStatistics()}.
+     *
+     * @param isStatementStatistics true to collect statement statistics, default false
+     */
+    public void setStatementStatistics(boolean isStatementStatistics) {
+        checkIfSealed();
+        this.isStatementStatistics = isStatementStatistics;
+    }
+
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    /**
+     * Set the execution time above which a statement is logged, with its SQL fingerprint, as a slow query.  This
+     * times statement executions even if statementStatistics is off.
+     *
+     * @param slowQueryThresholdMs the threshold in milliseconds, or 0 (default) to not log slow queries
+     */
+    public void setSlowQueryThreshold(long slowQueryThresholdMs) {
+        checkIfSealed();
+        if (slowQueryThresholdMs < 0) {
+            throw new IllegalArgumentException("slowQueryThreshold cannot be negative");
+        }
+
+        this.slowQueryThreshold = slowQueryThresholdMs;
+    }
+
+    public int getHoldTimeSampleRate() {
+        return holdTimeSampleRate;
+    }
+
+    /**
+     * Attribute the time connections are held to the code that borrowed them: for 1 in this many borrows the calling
+     * method is taken from the stack, and the hold time is aggregated by that call site.  Connections borrowed with
+     * {@code TestDataSource.getTaggedConnection()} are always attributed to their tag.
+     *
+     * @param holdTimeSampleRate 0 (default) to attribute tagged borrows only, or sample 1 in this many borrows
+     */
+    public void setHoldTimeSampleRate(int holdTimeSampleRate) {
+        checkIfSealed();
+        if (holdTimeSampleRate < 0) {
+            throw new IllegalArgumentException("holdTimeSampleRate cannot be negative");
+        }
+
+        this.holdTimeSampleRate = holdTimeSampleRate;
+    }
+
     public long getInitializationFailTimeout() {
         return initializationFailTimeout;
     }
@@ -369,18 +639,102 @@ public class TestConfig implements TestConfigMXBean {
         this.isIsolateInternalQueries = isolate;
     }
 
-//    public MetricsTrackerFactory getMetricsTrackerFactory() {
-//        return metricsTrackerFactory;
-//    }
-//
-//    public void setMetricsTrackerFactory(MetricsTrackerFactory metricsTrackerFactory) {
-//        if (metricRegistry != null) {
-//            throw new IllegalStateException("cannot use setMetricsTrackerFactory() and setMetricRegistry() together");
-//        }
-//
-//        this.metricsTrackerFactory = metricsTrackerFactory;
-//    }
-//
+    public int getLeakDetectionSampleRate() {
+        return leakDetectionSampleRate;
+    }
+
+    /**
+     * Select the lightweight leak detection mode.  With 0 (the default) every borrow schedules a task holding a stack
+     * trace.  With N &gt; 0 a borrow only records its time and thread, a stack is captured for 1 in N borrows, and
+     * in-use connections are scanned periodically, so the report is built only for actual leaks.
+     *
+     * @param leakDetectionSampleRate 0, or capture a stack trace for 1 in this many borrows
+     */
+    public void setLeakDetectionSampleRate(int leakDetectionSampleRate) {
+        checkIfSealed();
+        if (leakDetectionSampleRate < 0) {
+            throw new IllegalArgumentException("leakDetectionSampleRate cannot be negative");
+        }
+
+        this.leakDetectionSampleRate = leakDetectionSampleRate;
+    }
+
+    public int getPreparedStatementCacheSize() {
+        return preparedStatementCacheSize;
+    }
+
+    /**
+     * Set the maximum number of idle physical {@link java.sql.PreparedStatement}s cached per connection, or 0 (the
+     * default) to disable the cache.  A cached statement is reused by {@code prepareStatement()} calls with the same
+     * SQL, result set type, concurrency and holdability.
+     *
+     * @param preparedStatementCacheSize the per-connection cache size
+     */
+    public void setPreparedStatementCacheSize(int preparedStatementCacheSize) {
+        checkIfSealed();
+        if (preparedStatementCacheSize < 0) {
+            throw new IllegalArgumentException("preparedStatementCacheSize cannot be negative");
+        }
+
+        this.preparedStatementCacheSize = preparedStatementCacheSize;
+    }
+
+    public long getBackgroundValidationPeriod() {
+        return backgroundValidationPeriod;
+    }
+
+    /**
+     * Set how often, in milliseconds, idle connections are validated in the background, or 0 (the default) to
+     * validate on borrow only.  A connection validated within the last two periods is handed out without the inline
+     * alive check.
+     *
+     * @param backgroundValidationPeriodMs the background validation period in milliseconds
+     */
+    public void setBackgroundValidationPeriod(long backgroundValidationPeriodMs) {
+        checkIfSealed();
+        if (backgroundValidationPeriodMs < 0) {
+            throw new IllegalArgumentException("backgroundValidationPeriod cannot be negative");
+        }
+
+        this.backgroundValidationPeriod = backgroundValidationPeriodMs;
+    }
+
+    public int getBackgroundValidationConcurrency() {
+        return backgroundValidationConcurrency;
+    }
+
+    /**
+     * Set the maximum number of idle connections validated at the same time by the background validator.
+     *
+     * @param backgroundValidationConcurrency the number of background validation threads, default 2
+     */
+    public void setBackgroundValidationConcurrency(int backgroundValidationConcurrency) {
+        checkIfSealed();
+        if (backgroundValidationConcurrency < 1) {
+            throw new IllegalArgumentException("backgroundValidationConcurrency cannot be less than 1");
+        }
+
+        this.backgroundValidationConcurrency = backgroundValidationConcurrency;
+    }
+
+    public MetricsTrackerFactory getMetricsTrackerFactory() {
+        return metricsTrackerFactory;
+    }
+
+    /**
+     * Set the factory of the {@link com.nhn.test.metrics.IMetricsTracker} the pool reports to, for example a
+     * {@link com.nhn.test.metrics.histogram.HistogramMetricsTrackerFactory}.
+     *
+     * @param metricsTrackerFactory the factory, or null (the default) for no metrics
+     */
+    public void setMetricsTrackerFactory(MetricsTrackerFactory metricsTrackerFactory) {
+        if (metricRegistry != null) {
+            throw new IllegalStateException("cannot use setMetricsTrackerFactory() and setMetricRegistry() together");
+        }
+
+        this.metricsTrackerFactory = metricsTrackerFactory;
+    }
+
 //    public Object getMetricRegistry() {
 //        return metricRegistry;
 //    }
@@ -638,6 +992,11 @@ public class TestConfig implements TestConfigMXBean {
             }
         }
 
+        if (backgroundValidationPeriod > 0 && backgroundValidationPeriod < 1000 && !unitTest) {
+            LOGGER.warn("{} - backgroundValidationPeriod is less than 1000ms, setting to 1000ms.", poolName);
+            backgroundValidationPeriod = 1000;
+        }
+
         if (connectionTimeout < 250) {
             LOGGER.warn("{} - connectionTimeout is less than 250ms, setting to {}ms.", poolName, CONNECTION_TIMEOUT);
             connectionTimeout = CONNECTION_TIMEOUT;
@@ -652,6 +1011,11 @@ public class TestConfig implements TestConfigMXBean {
             maxPoolSize = DEFAULT_POOL_SIZE;
         }
 
+        if (tenantMaximumConnections > 0 && tenantMinimumConnections > tenantMaximumConnections) {
+            LOGGER.error("{} - tenantMinimumConnections cannot be greater than tenantMaximumConnections.", poolName);
+            throw new IllegalArgumentException("tenantMinimumConnections cannot be greater than tenantMaximumConnections.");
+        }
+
         if (minIdle < 0 || minIdle > maxPoolSize) {
             minIdle = maxPoolSize;
         }
@@ -1,5 +1,6 @@
 package com.nhn.test;
 
+import com.nhn.test.metrics.MetricsTrackerFactory;
 import com.nhn.test.pool.TestPool;
 import com.nhn.test.pool.TestPool.PoolInitializationException;
 import org.slf4j.Logger;
@@ -11,6 +12,7 @@ import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.nhn.test.pool.TestPool.POOL_NORMAL;
@@ -53,6 +55,74 @@ public class TestDataSource extends TestConfig implements DataSource, Closeable
             return fastPathPool.getConnection();
         }
 
+        return getOrStartPool().getConnection();
+    }
+
+    /**
+     * Acquire a connection with the given timeout and priority.  See {@link TestPool#getConnection(long, int)}.
+     *
+     * @param timeoutMs the maximum time to wait for a connection, in milliseconds
+     * @param priority the priority of this request, higher is served first; 0 is the default priority
+     * @return a connection
+     */
+    public Connection getConnection(long timeoutMs, int priority) throws SQLException {
+        if (isClosed()) {
+            throw new SQLException("TestDataSource " + this + " has been closed.");
+        }
+
+        return (fastPathPool != null ? fastPathPool : getOrStartPool()).getConnection(timeoutMs, priority);
+    }
+
+    /**
+     * Acquire a connection bound to the tenant's schema.  See {@link TestPool#getTenantConnection(String, long)}.
+     *
+     * @param tenantKey the tenant, used as the schema name
+     * @return a connection set to the tenant's schema
+     */
+    public Connection getTenantConnection(String tenantKey) throws SQLException {
+        if (isClosed()) {
+            throw new SQLException("TestDataSource " + this + " has been closed.");
+        }
+
+        return (fastPathPool != null ? fastPathPool : getOrStartPool()).getTenantConnection(tenantKey);
+    }
+
+    /**
+     * Acquire a connection whose hold time is attributed to the tag.  See {@link TestPool#getTaggedConnection(String, long)}.
+     *
+     * @param tag the name hold time is aggregated under
+     * @return a connection
+     */
+    public Connection getTaggedConnection(String tag) throws SQLException {
+        if (isClosed()) {
+            throw new SQLException("TestDataSource " + this + " has been closed.");
+        }
+
+        return (fastPathPool != null ? fastPathPool : getOrStartPool()).getTaggedConnection(tag);
+    }
+
+    /**
+     * Acquire a connection without blocking the calling thread.  See {@link TestPool#getConnectionAsync(long)}.
+     *
+     * @return a future that completes with a connection, or exceptionally with an {@link SQLException}
+     */
+    public CompletableFuture<Connection> getConnectionAsync() {
+        try {
+            if (isClosed()) {
+                throw new SQLException("TestDataSource " + this + " has been closed.");
+            }
+
+            // lazy initialization blocks once, while the pool is being started
+            return (fastPathPool != null ? fastPathPool : getOrStartPool()).getConnectionAsync();
+        }
+        catch (SQLException | RuntimeException e) {
+            final CompletableFuture<Connection> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private TestPool getOrStartPool() throws SQLException {
         TestPool result = pool;
         if (result == null) {
             synchronized (this) {
@@ -77,7 +147,7 @@ public class TestDataSource extends TestConfig implements DataSource, Closeable
             }
         }
 
-        return result.getConnection();
+        return result;
     }
 
     /** {@inheritDoc} */
@@ -197,21 +267,21 @@ public class TestDataSource extends TestConfig implements DataSource, Closeable
 //        }
 //    }
 //
-//    @Override
-//    public void setMetricsTrackerFactory(MetricsTrackerFactory metricsTrackerFactory) {
-//        boolean isAlreadySet = getMetricsTrackerFactory() != null;
-//        super.setMetricsTrackerFactory(metricsTrackerFactory);
-//
-//        TestPool p = pool;
-//        if (p != null) {
-//            if (isAlreadySet) {
-//                throw new IllegalStateException("MetricsTrackerFactory can only be set one time");
-//            }
-//            else {
-//                p.setMetricsTrackerFactory(super.getMetricsTrackerFactory());
-//            }
-//        }
-//    }
+    @Override
+    public void setMetricsTrackerFactory(MetricsTrackerFactory metricsTrackerFactory) {
+        boolean isAlreadySet = getMetricsTrackerFactory() != null;
+        super.setMetricsTrackerFactory(metricsTrackerFactory);
+
+        TestPool p = pool;
+        if (p != null) {
+            if (isAlreadySet) {
+                throw new IllegalStateException("MetricsTrackerFactory can only be set one time");
+            }
+            else {
+                p.setMetricsTrackerFactory(super.getMetricsTrackerFactory());
+            }
+        }
+    }
 //
 //    @Override
 //    public void setHealthCheckRegistry(Object healthCheckRegistry) {
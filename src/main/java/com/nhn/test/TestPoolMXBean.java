@@ -7,6 +7,15 @@ public interface TestPoolMXBean {
     int getActiveConnections();
     int getTotalConnections();
     int getThreadsAwaitingConnection();
+    int getEffectiveMaximumPoolSize();
+    String getLastPoolSizeDecision();
+    long getRejectedConnectionRequests();
+    long getConnectionTimeouts();
+    long getConnectionCreationFailures();
+    long getPreparedStatementCacheHits();
+    long getPreparedStatementCacheMisses();
+    long getPreparedStatementCacheEvictions();
+    String[] getHoldTimeHotspots();
     void softEvictConnections();
     void suspendPool();
     void resumePool();
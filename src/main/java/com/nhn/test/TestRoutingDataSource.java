@@ -0,0 +1,723 @@
+package com.nhn.test;
+
+import com.nhn.test.util.ConcurrentBag;
+import com.nhn.test.util.UtilityElf.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A DataSource over one primary pool and any number of replica pools.  {@link #getConnection()} returns a connection
+ * that binds to a pool on first use: if {@code setReadOnly(true)} was called before then, it is served by the replica
+ * with the fewest outstanding connections, otherwise by the primary.  {@link #getReadOnlyConnection()} is the same
+ * with {@code setReadOnly(true)} already applied.  Calling {@code setReadOnly()} after the connection is bound does not
+ * move it to another pool.
+ * <p>
+ * A replica that fails to provide a connection, or fails the optional {@link ReplicaHealthCheck}, is taken out of
+ * rotation for {@code com.nhn.test.routing.replicaCooldownMs} (default 5s).  A replica that is only busy, i.e. its
+ * borrow timed out or was rejected without a connection failure, is skipped for that borrow but stays in rotation.  The
+ * health check borrows with {@code com.nhn.test.routing.healthCheckTimeoutMs} (default 1s) rather than the replica's
+ * connectionTimeout, and a replica too busy to lend it a connection stays in rotation too.
+ * Read-only work falls back to the primary when no replica can serve it.
+ */
+public class TestRoutingDataSource implements DataSource, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestRoutingDataSource.class);
+
+    private final long replicaCooldownMs = Long.getLong("com.nhn.test.routing.replicaCooldownMs", 5_000L);
+    private final long healthCheckPeriodMs = Long.getLong("com.nhn.test.routing.healthCheckPeriodMs", 5_000L);
+    private final long healthCheckTimeoutMs = Long.getLong("com.nhn.test.routing.healthCheckTimeoutMs", 1_000L);
+
+    private final TestDataSource primary;
+    private final List<Replica> replicas;
+    private final ScheduledExecutorService healthCheckExecutor;
+    private final AtomicBoolean isShutdown = new AtomicBoolean();
+
+    /**
+     * Decides whether a replica may serve reads, e.g. by comparing its replication lag to a limit.
+     */
+    @FunctionalInterface
+    public interface ReplicaHealthCheck {
+        boolean isHealthy(TestDataSource replica, Connection connection) throws SQLException;
+    }
+
+    public TestRoutingDataSource(final TestConfig primaryConfig, final List<TestConfig> replicaConfigs) {
+        this(primaryConfig, replicaConfigs, null);
+    }
+
+    /**
+     * @param healthCheck run against every replica each {@code com.nhn.test.routing.healthCheckPeriodMs}, or null
+     */
+    public TestRoutingDataSource(final TestConfig primaryConfig, final List<TestConfig> replicaConfigs, final ReplicaHealthCheck healthCheck) {
+        final List<TestDataSource> started = new ArrayList<>();
+        try {
+            this.primary = new TestDataSource(primaryConfig);
+            started.add(primary);
+
+            final List<Replica> list = new ArrayList<>();
+            for (TestConfig replicaConfig : replicaConfigs) {
+                final TestDataSource replica = new TestDataSource(replicaConfig);
+                started.add(replica);
+                list.add(new Replica(replica));
+            }
+            this.replicas = Collections.unmodifiableList(list);
+        }
+        catch (RuntimeException e) {
+            started.forEach(TestDataSource::close);
+            throw e;
+        }
+
+        if (healthCheck != null && !replicas.isEmpty()) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory(primary.getPoolName() + " replica health check", true));
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor.scheduleWithFixedDelay(() -> checkReplicas(healthCheck), healthCheckPeriodMs, healthCheckPeriodMs, MILLISECONDS);
+            this.healthCheckExecutor = executor;
+        }
+        else {
+            this.healthCheckExecutor = null;
+        }
+    }
+
+    // ***********************************************************************
+    //                          DataSource methods
+    // ***********************************************************************
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (isClosed()) {
+            throw new SQLException("TestRoutingDataSource " + this + " has been closed.");
+        }
+
+        return new RoutingConnection();
+    }
+
+    /**
+     * Borrow a read-only connection from the least loaded replica in rotation, or from the primary if there is none.
+     */
+    public Connection getReadOnlyConnection() throws SQLException {
+        final Connection connection = getConnection();
+        connection.setReadOnly(true);
+        return connection;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public PrintWriter getLogWriter() throws SQLException
+    {
+        return primary.getLogWriter();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException
+    {
+        primary.setLogWriter(out);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException
+    {
+        primary.setLoginTimeout(seconds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getLoginTimeout() throws SQLException
+    {
+        return primary.getLoginTimeout();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+
+        return primary.unwrap(iface);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException
+    {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    // ***********************************************************************
+    //                        TestCP-specific methods
+    // ***********************************************************************
+
+    public TestDataSource getPrimary() {
+        return primary;
+    }
+
+    public List<TestDataSource> getReplicas() {
+        final List<TestDataSource> list = new ArrayList<>(replicas.size());
+        replicas.forEach(replica -> list.add(replica.dataSource));
+        return list;
+    }
+
+    /**
+     * @return the number of replicas currently in rotation
+     */
+    public int getHealthyReplicaCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.isInRotation()) {
+                healthy++;
+            }
+        }
+        return healthy;
+    }
+
+    @Override
+    public void close() {
+        if (isShutdown.getAndSet(true)) {
+            return;
+        }
+
+        if (healthCheckExecutor != null) {
+            healthCheckExecutor.shutdownNow();
+        }
+
+        replicas.forEach(replica -> replica.dataSource.close());
+        primary.close();
+    }
+
+    public boolean isClosed() {
+        return isShutdown.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TestRoutingDataSource (primary=" + primary + ", replicas=" + replicas.size() + ")";
+    }
+
+    // ***********************************************************************
+    //                           Private methods
+    // ***********************************************************************
+
+    // least outstanding connections, ties broken at random so idle replicas share the load
+    private Replica leastOutstanding(final List<Replica> excluded) {
+        Replica best = null;
+        int bestOutstanding = Integer.MAX_VALUE;
+        int ties = 0;
+        for (Replica replica : replicas) {
+            if (excluded.contains(replica) || !replica.isInRotation()) {
+                continue;
+            }
+
+            final int outstanding = replica.outstanding.get();
+            if (outstanding < bestOutstanding) {
+                best = replica;
+                bestOutstanding = outstanding;
+                ties = 1;
+            }
+            else if (outstanding == bestOutstanding && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                best = replica;
+            }
+        }
+
+        return best;
+    }
+
+    // timed out or rejected with no connection failure behind it: the replica is busy, not broken
+    private static boolean isBusy(final SQLException e) {
+        return e instanceof SQLTransientConnectionException && e.getCause() == null;
+    }
+
+    private void checkReplicas(final ReplicaHealthCheck healthCheck) {
+        for (Replica replica : replicas) {
+            final Connection connection;
+            try {
+                // replicas are checked one after another, so do not wait out a busy replica's full connectionTimeout
+                connection = replica.dataSource.getConnection(healthCheckTimeoutMs, ConcurrentBag.PRIORITY_NORMAL);
+            }
+            catch (SQLException e) {
+                if (!isBusy(e)) {
+                    replica.takeOutOfRotation(replicaCooldownMs, e);
+                }
+                continue;
+            }
+            catch (Exception e) {
+                replica.takeOutOfRotation(replicaCooldownMs, e);
+                continue;
+            }
+
+            try (Connection ignored = connection) {
+                if (!healthCheck.isHealthy(replica.dataSource, connection)) {
+                    replica.takeOutOfRotation(replicaCooldownMs, null);
+                }
+            }
+            catch (Exception e) {
+                replica.takeOutOfRotation(replicaCooldownMs, e);
+            }
+        }
+    }
+
+    // ***********************************************************************
+    //                      Non-anonymous Inner-classes
+    // ***********************************************************************
+
+    private static final class Replica {
+        private final TestDataSource dataSource;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long outOfRotationUntil;
+
+        Replica(final TestDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        boolean isInRotation() {
+            final long until = outOfRotationUntil;
+            return until == 0L || System.nanoTime() - until >= 0L;
+        }
+
+        void takeOutOfRotation(final long cooldownMs, final Exception cause) {
+            outOfRotationUntil = System.nanoTime() + MILLISECONDS.toNanos(cooldownMs);
+            LOGGER.warn("{} - Replica taken out of rotation for {}ms ({})", dataSource.getPoolName(), cooldownMs,
+                    cause != null ? cause.getMessage() : "health check failed");
+        }
+    }
+
+    /**
+     * Connection that defers the choice of pool until the first call it cannot answer itself.  Until then it only
+     * records setReadOnly() and setAutoCommit(), which are replayed on the bound connection.  Once bound, setReadOnly()
+     * is passed to the bound connection and does not move it to another pool; call it before any other method, or use
+     * {@link #getReadOnlyConnection()}, to have reads served by a replica.
+     */
+    private final class RoutingConnection implements Connection {
+        private Connection target;
+        private Replica replica; // counts this connection as outstanding while bound to a replica
+        private boolean readOnly;
+        private Boolean autoCommit;
+        private boolean closed;
+
+        private Connection target() throws SQLException {
+            if (closed) {
+                throw new SQLException("Connection is closed");
+            }
+
+            if (target == null) {
+                bind();
+            }
+            return target;
+        }
+
+        private void bind() throws SQLException {
+            final Connection connection = readOnly ? borrowReadOnly() : primary.getConnection();
+            try {
+                if (readOnly) {
+                    connection.setReadOnly(true);
+                }
+                if (autoCommit != null) {
+                    connection.setAutoCommit(autoCommit);
+                }
+            }
+            catch (SQLException e) {
+                release(connection);
+                throw e;
+            }
+
+            target = connection;
+        }
+
+        private Connection borrowReadOnly() throws SQLException {
+            final List<Replica> tried = new ArrayList<>();
+            Replica candidate;
+            while ((candidate = leastOutstanding(tried)) != null) {
+                tried.add(candidate);
+                candidate.outstanding.incrementAndGet();
+                try {
+                    final Connection connection = candidate.dataSource.getConnection();
+                    replica = candidate;
+                    return connection;
+                }
+                catch (SQLException e) {
+                    candidate.outstanding.decrementAndGet();
+                    if (!isBusy(e)) {
+                        candidate.takeOutOfRotation(replicaCooldownMs, e);
+                    }
+                }
+                catch (RuntimeException e) {
+                    candidate.outstanding.decrementAndGet();
+                    throw e;
+                }
+            }
+
+            return primary.getConnection();
+        }
+
+        private void release(final Connection connection) throws SQLException {
+            try {
+                connection.close();
+            }
+            finally {
+                if (replica != null) {
+                    replica.outstanding.decrementAndGet();
+                    replica = null;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            if (target != null) {
+                release(target);
+            }
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return closed || (target != null && target.isClosed());
+        }
+
+        @Override
+        public void setReadOnly(boolean readOnly) throws SQLException {
+            if (target == null && !closed) {
+                this.readOnly = readOnly;
+                return;
+            }
+            target().setReadOnly(readOnly);
+        }
+
+        @Override
+        public boolean isReadOnly() throws SQLException {
+            return target == null && !closed ? readOnly : target().isReadOnly();
+        }
+
+        @Override
+        public void setAutoCommit(boolean autoCommit) throws SQLException {
+            if (target == null && !closed) {
+                this.autoCommit = autoCommit;
+                return;
+            }
+            target().setAutoCommit(autoCommit);
+        }
+
+        @Override
+        public boolean getAutoCommit() throws SQLException {
+            return target().getAutoCommit();
+        }
+
+        @Override
+        public Statement createStatement() throws SQLException {
+            return target().createStatement();
+        }
+
+        @Override
+        public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+            return target().createStatement(resultSetType, resultSetConcurrency);
+        }
+
+        @Override
+        public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+            return target().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            return target().prepareStatement(sql);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+            return target().prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+            return target().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            return target().prepareStatement(sql, autoGeneratedKeys);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+            return target().prepareStatement(sql, columnIndexes);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+            return target().prepareStatement(sql, columnNames);
+        }
+
+        @Override
+        public CallableStatement prepareCall(String sql) throws SQLException {
+            return target().prepareCall(sql);
+        }
+
+        @Override
+        public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+            return target().prepareCall(sql, resultSetType, resultSetConcurrency);
+        }
+
+        @Override
+        public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+            return target().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+
+        @Override
+        public String nativeSQL(String sql) throws SQLException {
+            return target().nativeSQL(sql);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            target().commit();
+        }
+
+        @Override
+        public void rollback() throws SQLException {
+            target().rollback();
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) throws SQLException {
+            target().rollback(savepoint);
+        }
+
+        @Override
+        public Savepoint setSavepoint() throws SQLException {
+            return target().setSavepoint();
+        }
+
+        @Override
+        public Savepoint setSavepoint(String name) throws SQLException {
+            return target().setSavepoint(name);
+        }
+
+        @Override
+        public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+            target().releaseSavepoint(savepoint);
+        }
+
+        @Override
+        public DatabaseMetaData getMetaData() throws SQLException {
+            return target().getMetaData();
+        }
+
+        @Override
+        public void setCatalog(String catalog) throws SQLException {
+            target().setCatalog(catalog);
+        }
+
+        @Override
+        public String getCatalog() throws SQLException {
+            return target().getCatalog();
+        }
+
+        @Override
+        public void setSchema(String schema) throws SQLException {
+            target().setSchema(schema);
+        }
+
+        @Override
+        public String getSchema() throws SQLException {
+            return target().getSchema();
+        }
+
+        @Override
+        public void setTransactionIsolation(int level) throws SQLException {
+            target().setTransactionIsolation(level);
+        }
+
+        @Override
+        public int getTransactionIsolation() throws SQLException {
+            return target().getTransactionIsolation();
+        }
+
+        @Override
+        public SQLWarning getWarnings() throws SQLException {
+            return target().getWarnings();
+        }
+
+        @Override
+        public void clearWarnings() throws SQLException {
+            target().clearWarnings();
+        }
+
+        @Override
+        public Map<String, Class<?>> getTypeMap() throws SQLException {
+            return target().getTypeMap();
+        }
+
+        @Override
+        public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+            target().setTypeMap(map);
+        }
+
+        @Override
+        public void setHoldability(int holdability) throws SQLException {
+            target().setHoldability(holdability);
+        }
+
+        @Override
+        public int getHoldability() throws SQLException {
+            return target().getHoldability();
+        }
+
+        @Override
+        public Clob createClob() throws SQLException {
+            return target().createClob();
+        }
+
+        @Override
+        public Blob createBlob() throws SQLException {
+            return target().createBlob();
+        }
+
+        @Override
+        public NClob createNClob() throws SQLException {
+            return target().createNClob();
+        }
+
+        @Override
+        public SQLXML createSQLXML() throws SQLException {
+            return target().createSQLXML();
+        }
+
+        @Override
+        public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+            return target().createArrayOf(typeName, elements);
+        }
+
+        @Override
+        public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+            return target().createStruct(typeName, attributes);
+        }
+
+        @Override
+        public boolean isValid(int timeout) throws SQLException {
+            return target().isValid(timeout);
+        }
+
+        @Override
+        public void setClientInfo(String name, String value) throws SQLClientInfoException {
+            try {
+                target().setClientInfo(name, value);
+            }
+            catch (SQLClientInfoException e) {
+                throw e;
+            }
+            catch (SQLException e) {
+                throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+            }
+        }
+
+        @Override
+        public void setClientInfo(Properties properties) throws SQLClientInfoException {
+            try {
+                target().setClientInfo(properties);
+            }
+            catch (SQLClientInfoException e) {
+                throw e;
+            }
+            catch (SQLException e) {
+                throw new SQLClientInfoException(e.getMessage(), e.getSQLState(), e.getErrorCode(), null, e);
+            }
+        }
+
+        @Override
+        public String getClientInfo(String name) throws SQLException {
+            return target().getClientInfo(name);
+        }
+
+        @Override
+        public Properties getClientInfo() throws SQLException {
+            return target().getClientInfo();
+        }
+
+        @Override
+        public void abort(Executor executor) throws SQLException {
+            target().abort(executor);
+        }
+
+        @Override
+        public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+            target().setNetworkTimeout(executor, milliseconds);
+        }
+
+        @Override
+        public int getNetworkTimeout() throws SQLException {
+            return target().getNetworkTimeout();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) {
+                return (T) this;
+            }
+            return target().unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || target().isWrapperFor(iface);
+        }
+
+        @Override
+        public String toString() {
+            return "RoutingConnection(" + (target != null ? target : "unbound") + ")";
+        }
+    }
+}
@@ -5,6 +5,7 @@ public interface IMetricsTracker extends AutoCloseable {
     default void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {}
     default void recordConnectionUsageMillis(final long elapsedBorrowedMillis) {}
     default void recordConnectionTimeout() {}
+    default void recordConnectionRejected() {}
 
     @Override
     default void close() {}
@@ -0,0 +1,94 @@
+package com.nhn.test.metrics.histogram;
+
+import com.nhn.test.metrics.IMetricsTracker;
+import com.nhn.test.metrics.PoolStats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link IMetricsTracker} recording acquisition, usage and creation times into {@link LatencyHistogram}s.
+ */
+public final class HistogramMetricsTracker implements IMetricsTracker {
+    private final String poolName;
+    private final PoolStats poolStats;
+    private final HistogramMetricsTrackerFactory factory;
+
+    private final LatencyHistogram connectionAcquireNanos = new LatencyHistogram();
+    private final LatencyHistogram connectionUsageMillis = new LatencyHistogram();
+    private final LatencyHistogram connectionCreationMillis = new LatencyHistogram();
+    private final LongAdder connectionTimeouts = new LongAdder();
+    private final LongAdder connectionRejections = new LongAdder();
+
+    HistogramMetricsTracker(final String poolName, final PoolStats poolStats, final HistogramMetricsTrackerFactory factory) {
+        this.poolName = poolName;
+        this.poolStats = poolStats;
+        this.factory = factory;
+    }
+
+    @Override
+    public void recordConnectionCreatedMillis(final long connectionCreatedMillis) {
+        connectionCreationMillis.record(connectionCreatedMillis);
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(final long elapsedAcquiredNanos) {
+        connectionAcquireNanos.record(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionUsageMillis(final long elapsedBorrowedMillis) {
+        connectionUsageMillis.record(elapsedBorrowedMillis);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        connectionTimeouts.increment();
+    }
+
+    @Override
+    public void recordConnectionRejected() {
+        connectionRejections.increment();
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public PoolStats getPoolStats() {
+        return poolStats;
+    }
+
+    /**
+     * @return the time taken by getConnection(), in nanoseconds, including calls that timed out
+     */
+    public LatencyHistogram getConnectionAcquireNanos() {
+        return connectionAcquireNanos;
+    }
+
+    /**
+     * @return the time from borrowing a connection to returning it, in milliseconds
+     */
+    public LatencyHistogram getConnectionUsageMillis() {
+        return connectionUsageMillis;
+    }
+
+    /**
+     * @return the time taken to open and set up a new connection, in milliseconds
+     */
+    public LatencyHistogram getConnectionCreationMillis() {
+        return connectionCreationMillis;
+    }
+
+    public long getConnectionTimeoutCount() {
+        return connectionTimeouts.sum();
+    }
+
+    public long getConnectionRejectedCount() {
+        return connectionRejections.sum();
+    }
+
+    @Override
+    public void close() {
+        factory.remove(this);
+    }
+}
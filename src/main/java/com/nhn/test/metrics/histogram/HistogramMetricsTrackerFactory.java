@@ -0,0 +1,44 @@
+package com.nhn.test.metrics.histogram;
+
+import com.nhn.test.metrics.IMetricsTracker;
+import com.nhn.test.metrics.MetricsTrackerFactory;
+import com.nhn.test.metrics.PoolStats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates a {@link HistogramMetricsTracker} per pool and keeps it, until the pool shuts down, for lookup by pool name.
+ * <pre>
+ *   HistogramMetricsTrackerFactory metrics = new HistogramMetricsTrackerFactory();
+ *   config.setMetricsTrackerFactory(metrics);
+ *   ...
+ *   metrics.getTracker("main").getConnectionAcquireNanos().snapshot().getValueAtPercentile(99);
+ * </pre>
+ */
+public class HistogramMetricsTrackerFactory implements MetricsTrackerFactory {
+    private final ConcurrentHashMap<String, HistogramMetricsTracker> trackers = new ConcurrentHashMap<>();
+
+    @Override
+    public IMetricsTracker create(final String poolName, final PoolStats poolStats) {
+        final HistogramMetricsTracker tracker = new HistogramMetricsTracker(poolName, poolStats, this);
+        trackers.put(poolName, tracker);
+        return tracker;
+    }
+
+    /**
+     * @return the tracker of the pool, or null if there is no such pool or it was shut down
+     */
+    public HistogramMetricsTracker getTracker(final String poolName) {
+        return trackers.get(poolName);
+    }
+
+    public Collection<HistogramMetricsTracker> getTrackers() {
+        return new ArrayList<>(trackers.values());
+    }
+
+    void remove(final HistogramMetricsTracker tracker) {
+        trackers.remove(tracker.getPoolName(), tracker);
+    }
+}
@@ -0,0 +1,170 @@
+package com.nhn.test.metrics.histogram;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values in log-linear buckets, in the manner of HdrHistogram: every power
+ * of two is split into {@value #SUB_BUCKETS} equal sub-buckets, so a recorded value is off by at most 1/16th
+ * (6.25%), over the full range of a long.  Counts are striped by thread to keep recording threads off each other's
+ * cache lines, and recording allocates nothing.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        final int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 16)));
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void record(final long value) {
+        final long v = Math.max(0L, value);
+        final long id = Thread.currentThread().getId();
+        stripes[(int) (id ^ (id >>> 32)) & stripeMask].incrementAndGet(bucketIndex(v));
+        sum.add(v);
+
+        long current;
+        while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return a consistent-enough copy of the counts; values recorded while it is taken may or may not be included
+     */
+    public Snapshot snapshot() {
+        return snapshot(null);
+    }
+
+    /**
+     * Like {@link #snapshot()}, but overwriting an earlier snapshot rather than allocating a new one.
+     *
+     * @param reuse a snapshot of any histogram to overwrite, or null
+     */
+    public Snapshot snapshot(final Snapshot reuse) {
+        final Snapshot snapshot = reuse != null ? reuse : new Snapshot();
+        final long[] counts = snapshot.counts;
+        Arrays.fill(counts, 0L);
+        long count = 0L;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final long c = stripe.get(i);
+                counts[i] += c;
+                count += c;
+            }
+        }
+
+        snapshot.count = count;
+        snapshot.sum = sum.sum();
+        snapshot.max = max.get();
+        return snapshot;
+    }
+
+    static int bucketIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long bucketLowerBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        final int shift = index / SUB_BUCKETS - 1;
+        return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Point-in-time view of a {@link LatencyHistogram}.
+     */
+    public static final class Snapshot {
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        Snapshot() {
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0L ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound of the bucket holding the value at the percentile, or 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (count == 0L) {
+                return 0L;
+            }
+
+            final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+            long seen = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+
+            return max;
+        }
+
+        /**
+         * @return the number of recorded values less than or equal to the value, possibly including values up to the
+         *         end of the value's bucket
+         */
+        public long getCountAtOrBelow(final long value) {
+            long below = 0L;
+            for (int i = 0; i < counts.length && bucketLowerBound(i) <= value; i++) {
+                below += counts[i];
+            }
+            return below;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + String.format("%.1f", getMean()) + ", p50=" + getValueAtPercentile(50)
+                    + ", p99=" + getValueAtPercentile(99) + ", max=" + max;
+        }
+    }
+}
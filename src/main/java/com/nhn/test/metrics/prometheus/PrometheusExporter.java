@@ -0,0 +1,333 @@
+package com.nhn.test.metrics.prometheus;
+
+import com.nhn.test.TestDataSource;
+import com.nhn.test.TestPoolMXBean;
+import com.nhn.test.metrics.histogram.HistogramMetricsTracker;
+import com.nhn.test.metrics.histogram.HistogramMetricsTrackerFactory;
+import com.nhn.test.metrics.histogram.LatencyHistogram;
+import com.nhn.test.pool.HoldTimeStatistics.SiteStats;
+import com.nhn.test.pool.TestPool;
+import com.nhn.test.util.UtilityElf.DefaultThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Embedded HTTP endpoint serving the state of registered pools at {@code /metrics} in the Prometheus text exposition
+ * format: connection gauges, bag entry states, timeout, rejection, creation failure and closure counters, hold times by
+ * borrower tag or call site and, for pools configured with a {@link HistogramMetricsTrackerFactory}, summaries of
+ * acquisition, usage and creation time.
+ * <p>
+ * A scrape renders into buffers kept between scrapes, so it allocates little beyond what the JDK HTTP server does.
+ * <pre>
+ *   PrometheusExporter exporter = new PrometheusExporter(9404).register(dataSource);
+ * </pre>
+ */
+public final class PrometheusExporter implements Closeable {
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] BAG_STATES = { "not_in_use", "in_use", "removed", "reserved" };
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double MILLIS_PER_SECOND = 1e3;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final CopyOnWriteArrayList<TestDataSource> dataSources = new CopyOnWriteArrayList<>();
+
+    // scrape buffers, guarded by this; bytes is written under the lock but sent outside it, which is safe because only
+    // the single exporter thread encodes into it
+    private final StringBuilder text = new StringBuilder(8192);
+    private byte[] bytes = new byte[8192];
+    private LatencyHistogram.Snapshot snapshot;
+
+    public PrometheusExporter(final int port) throws IOException {
+        this(new InetSocketAddress(port));
+    }
+
+    public PrometheusExporter(final InetSocketAddress address) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("TestCP prometheus exporter", true));
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    public PrometheusExporter register(final TestDataSource dataSource) {
+        dataSources.addIfAbsent(dataSource);
+        return this;
+    }
+
+    public void unregister(final TestDataSource dataSource) {
+        dataSources.remove(dataSource);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Render the metrics of all registered, running pools.
+     */
+    public synchronized String scrape() {
+        render();
+        return text.toString();
+    }
+
+    // ***********************************************************************
+    //                           Private methods
+    // ***********************************************************************
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final int length;
+            synchronized (this) {
+                render();
+                length = encode();
+            }
+
+            // a slow client must not block scrape()
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes, 0, length);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void render() {
+        final StringBuilder sb = text;
+        sb.setLength(0);
+
+        header(sb, "testcp_connections", "gauge", "Connections in the pool by state.");
+        for (TestDataSource ds : dataSources) {
+            final TestPool pool = pool(ds);
+            if (pool != null) {
+                sample(sb, "testcp_connections", ds, "state", "active", pool.getActiveConnections());
+                sample(sb, "testcp_connections", ds, "state", "idle", pool.getIdleConnections());
+                sample(sb, "testcp_connections", ds, "state", "total", pool.getTotalConnections());
+            }
+        }
+
+        family(sb, "testcp_connections_pending", "gauge", "Threads waiting for a connection.", TestPool::getThreadsAwaitingConnection);
+        family(sb, "testcp_connections_max", "gauge", "Maximum pool size in effect, after adaptive sizing.", TestPool::getEffectiveMaximumPoolSize);
+
+        header(sb, "testcp_bag_entries", "gauge", "Pool entries by ConcurrentBag state.");
+        for (TestDataSource ds : dataSources) {
+            final TestPool pool = pool(ds);
+            if (pool != null) {
+                final int[] states = pool.getPoolStateCounts();
+                for (int i = 0; i < BAG_STATES.length; i++) {
+                    sample(sb, "testcp_bag_entries", ds, "state", BAG_STATES[i], states[i]);
+                }
+            }
+        }
+
+        family(sb, "testcp_connection_timeouts_total", "counter", "Connection requests that timed out.", TestPool::getConnectionTimeouts);
+        family(sb, "testcp_connection_rejections_total", "counter", "Connection requests rejected by admission control.", TestPool::getRejectedConnectionRequests);
+        family(sb, "testcp_connection_creation_failures_total", "counter", "Failed attempts to open a connection.", TestPool::getConnectionCreationFailures);
+
+        header(sb, "testcp_connections_closed_total", "counter", "Connections closed by the pool, by reason.");
+        for (TestDataSource ds : dataSources) {
+            final TestPool pool = pool(ds);
+            if (pool != null) {
+                pool.forEachClosedConnectionCount((reason, count) -> labels(sb, "testcp_connections_closed_total", ds, "reason", reason, true).append(count).append('\n'));
+            }
+        }
+
+        sites(sb, "testcp_connection_holds_total", "counter", "Connections held, by borrower tag or sampled call site.", SiteStats::getCount);
+        sites(sb, "testcp_connection_hold_seconds_total", "counter", "Time connections were held, by borrower tag or sampled call site.",
+                site -> site.getTotalMillis() / MILLIS_PER_SECOND);
+        sites(sb, "testcp_connection_hold_max_seconds", "gauge", "Longest time a connection was held, by borrower tag or sampled call site.",
+                site -> site.getMaxMillis() / MILLIS_PER_SECOND);
+
+        summaries(sb, "testcp_connection_acquire_seconds", "Time taken to acquire a connection.", Histogram.ACQUIRE);
+        summaries(sb, "testcp_connection_usage_seconds", "Time connections were held by the application.", Histogram.USAGE);
+        summaries(sb, "testcp_connection_creation_seconds", "Time taken to open a new connection.", Histogram.CREATION);
+    }
+
+    private void family(final StringBuilder sb, final String name, final String type, final String help, final ToLongFunction<TestPool> value) {
+        header(sb, name, type, help);
+        for (TestDataSource ds : dataSources) {
+            final TestPool pool = pool(ds);
+            if (pool != null) {
+                sample(sb, name, ds, null, null, value.applyAsLong(pool));
+            }
+        }
+    }
+
+    private void sites(final StringBuilder sb, final String name, final String type, final String help, final ToDoubleFunction<SiteStats> value) {
+        header(sb, name, type, help);
+        for (TestDataSource ds : dataSources) {
+            final TestPool pool = pool(ds);
+            if (pool != null) {
+                pool.getHoldTimeStatistics().forEachSite(site -> sample(sb, name, ds, "site", site.getSite(), value.applyAsDouble(site)));
+            }
+        }
+    }
+
+    private void summaries(final StringBuilder sb, final String name, final String help, final Histogram histogram) {
+        header(sb, name, "summary", help);
+        for (TestDataSource ds : dataSources) {
+            final HistogramMetricsTracker tracker = pool(ds) != null ? tracker(ds) : null;
+            if (tracker == null) {
+                continue;
+            }
+
+            snapshot = histogram.of(tracker).snapshot(snapshot);
+            final double unitsPerSecond = histogram.unitsPerSecond;
+            for (double quantile : QUANTILES) {
+                sb.append(name).append("{pool=\"");
+                escape(sb, ds.getPoolName(), false);
+                sb.append("\",quantile=\"").append(quantile).append("\"} ")
+                  .append(snapshot.getValueAtPercentile(quantile * 100) / unitsPerSecond).append('\n');
+            }
+
+            sb.append(name).append("_sum{pool=\"");
+            escape(sb, ds.getPoolName(), false);
+            sb.append("\"} ").append(snapshot.getSum() / unitsPerSecond).append('\n');
+            sb.append(name).append("_count{pool=\"");
+            escape(sb, ds.getPoolName(), false);
+            sb.append("\"} ").append(snapshot.getCount()).append('\n');
+        }
+    }
+
+    private static void header(final StringBuilder sb, final String name, final String type, final String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder sb, final String name, final TestDataSource ds, final String label, final String value, final long sample) {
+        labels(sb, name, ds, label, value, false).append(sample).append('\n');
+    }
+
+    private static void sample(final StringBuilder sb, final String name, final TestDataSource ds, final String label, final String value, final double sample) {
+        labels(sb, name, ds, label, value, false).append(sample).append('\n');
+    }
+
+    private static StringBuilder labels(final StringBuilder sb, final String name, final TestDataSource ds, final String label, final String value, final boolean trimParentheses) {
+        sb.append(name).append("{pool=\"");
+        escape(sb, ds.getPoolName(), false);
+        sb.append('"');
+        if (label != null) {
+            sb.append(',').append(label).append("=\"");
+            escape(sb, value, trimParentheses);
+            sb.append('"');
+        }
+        return sb.append("} ");
+    }
+
+    // label values are escaped per the exposition format; closure reasons also lose their surrounding parentheses
+    private static void escape(final StringBuilder sb, final String value, final boolean trimParentheses) {
+        int start = 0;
+        int end = value.length();
+        if (trimParentheses && end >= 2 && value.charAt(0) == '(' && value.charAt(end - 1) == ')') {
+            start++;
+            end--;
+        }
+
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    // UTF-8 encode the text into the reused byte buffer
+    private int encode() {
+        final StringBuilder sb = text;
+        final int length = sb.length();
+        if (bytes.length < length * 3) {
+            bytes = Arrays.copyOf(bytes, length * 3);
+        }
+
+        final byte[] out = bytes;
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = sb.charAt(i);
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                out[n++] = (byte) (0xC0 | (c >> 6));
+                out[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(sb.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, sb.charAt(++i));
+                out[n++] = (byte) (0xF0 | (cp >> 18));
+                out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[n++] = (byte) (0x80 | (cp & 0x3F));
+            }
+            else {
+                out[n++] = (byte) (0xE0 | (c >> 12));
+                out[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        return n;
+    }
+
+    private static TestPool pool(final TestDataSource ds) {
+        final TestPoolMXBean pool = ds.isRunning() ? ds.getTestPoolMXBean() : null;
+        return pool instanceof TestPool ? (TestPool) pool : null;
+    }
+
+    private static HistogramMetricsTracker tracker(final TestDataSource ds) {
+        return ds.getMetricsTrackerFactory() instanceof HistogramMetricsTrackerFactory
+                ? ((HistogramMetricsTrackerFactory) ds.getMetricsTrackerFactory()).getTracker(ds.getPoolName())
+                : null;
+    }
+
+    private enum Histogram {
+        ACQUIRE(NANOS_PER_SECOND),
+        USAGE(MILLIS_PER_SECOND),
+        CREATION(MILLIS_PER_SECOND);
+
+        final double unitsPerSecond;
+
+        Histogram(final double unitsPerSecond) {
+            this.unitsPerSecond = unitsPerSecond;
+        }
+
+        LatencyHistogram of(final HistogramMetricsTracker tracker) {
+            switch (this) {
+                case ACQUIRE:
+                    return tracker.getConnectionAcquireNanos();
+                case USAGE:
+                    return tracker.getConnectionUsageMillis();
+                default:
+                    return tracker.getConnectionCreationMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.nhn.test.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Decides, before a borrower starts waiting on an exhausted pool, whether it is worth waiting at all.  A request is
+ * rejected if maximumWaitingRequests are already waiting or, with loadShedding enabled, if the expected wait exceeds
+ * its timeout.  The expected wait is the queue position over the rate at which connections were returned recently
+ * (an EWMA over one second windows); with no recent returns there is nothing to estimate from and the request is
+ * admitted.  Nor is load shed while the pool can still grow, since a new connection serves the request in about one
+ * connect time whatever the return rate.
+ */
+final class AdmissionController {
+    private static final long WINDOW_NANOS = SECONDS.toNanos(1);
+    private static final double ALPHA = 0.5;
+
+    private final int maxWaiters;
+    private final boolean loadShedding;
+
+    private final LongAdder released = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private volatile double releasesPerNano;
+
+    AdmissionController(final int maxWaiters, final boolean loadShedding) {
+        this.maxWaiters = maxWaiters;
+        this.loadShedding = loadShedding;
+    }
+
+    void recordRelease() {
+        released.increment();
+    }
+
+    /**
+     * @param waiting the number of requests already waiting
+     * @param budgetMs the time the request is willing to wait
+     * @param canGrow whether the pool is below its effective maximum size
+     * @return null if the request is admitted, otherwise the reason for rejecting it
+     */
+    String admit(final int waiting, final long budgetMs, final boolean canGrow) {
+        if (maxWaiters > 0 && waiting >= maxWaiters) {
+            rejected.increment();
+            return waiting + " requests are already waiting (maximumWaitingRequests=" + maxWaiters + ")";
+        }
+
+        if (loadShedding && !canGrow) {
+            final double rate = releaseRate();
+            if (rate > 0.0) {
+                final long expectedWaitMs = NANOSECONDS.toMillis((long) ((waiting + 1) / rate));
+                if (expectedWaitMs > budgetMs) {
+                    rejected.increment();
+                    return "expected wait of " + expectedWaitMs + "ms exceeds the " + budgetMs + "ms timeout (" + waiting + " waiting)";
+                }
+            }
+        }
+
+        return null;
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private double releaseRate() {
+        final long now = System.nanoTime();
+        final long start = windowStart.get();
+        final long elapsed = now - start;
+        if (elapsed >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            final double current = released.sumThenReset() / (double) elapsed;
+            final double previous = releasesPerNano;
+            releasesPerNano = previous == 0.0 ? current : ALPHA * current + (1 - ALPHA) * previous;
+        }
+
+        return releasesPerNano;
+    }
+}
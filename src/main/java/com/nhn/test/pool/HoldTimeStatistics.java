@@ -0,0 +1,177 @@
+package com.nhn.test.pool;
+
+import com.nhn.test.TestDataSource;
+import com.nhn.test.TestRoutingDataSource;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * How long connections are held, aggregated by who held them: the tag of a connection borrowed with {@link
+ * TestPool#getTaggedConnection(String)}, or the method that called getConnection() for 1 in holdTimeSampleRate
+ * borrows.  The call site is the first stack frame outside the pool and its DataSources; the stack is only walked for
+ * sampled borrows, so counts of sampled sites are a fraction of their borrows while their mean and max hold times are
+ * representative.
+ * <p>
+ * At most {@code com.nhn.test.holdTime.maxSites} (default 200) sites are tracked; later ones are counted under {@link
+ * #OTHER}.
+ */
+public final class HoldTimeStatistics {
+    public static final String OTHER = "(other)";
+    public static final String UNKNOWN = "(unknown)";
+
+    private static final int MAX_SITES = Integer.getInteger("com.nhn.test.holdTime.maxSites", 200);
+
+    private final int sampleRate;
+    private final ConcurrentHashMap<String, SiteStats> stats = new ConcurrentHashMap<>();
+    private final AtomicInteger sites = new AtomicInteger();
+
+    HoldTimeStatistics(final int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the statistics of every site with at least one hold, by descending total hold time
+     */
+    public List<SiteStats> getSiteStats() {
+        final List<SiteStats> list = new ArrayList<>(stats.values());
+        list.sort(Comparator.comparingLong((SiteStats site) -> site.totalNanos.sum()).reversed());
+        return list;
+    }
+
+    public void forEachSite(final Consumer<SiteStats> action) {
+        stats.values().forEach(action);
+    }
+
+    /**
+     * @return the statistics of the tag or call site, or null if it has not held a connection
+     */
+    public SiteStats getSiteStats(final String site) {
+        return stats.get(site);
+    }
+
+    /**
+     * Forget all statistics collected so far.
+     */
+    public void reset() {
+        stats.clear();
+        sites.set(0);
+    }
+
+    /**
+     * @return the tag, the calling site of a sampled borrow, or null if the borrow is not attributed
+     */
+    String borrowSite(final String tag) {
+        if (tag != null) {
+            return tag;
+        }
+
+        if (sampleRate > 0 && (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0)) {
+            return callSite();
+        }
+
+        return null;
+    }
+
+    void record(final String site, final long heldNanos) {
+        statsFor(site).record(heldNanos);
+    }
+
+    static String callSite() {
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            if (!isPoolFrame(frame.getClassName())) {
+                return frame.getClassName() + '.' + frame.getMethodName() + ':' + frame.getLineNumber();
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    static boolean isPoolFrame(final String className) {
+        return className.startsWith(TestPool.class.getName())
+                || className.startsWith(TestDataSource.class.getName())
+                || className.startsWith(TestRoutingDataSource.class.getName())
+                || className.equals(HoldTimeStatistics.class.getName())
+                || className.startsWith("java.lang.reflect.")
+                || className.startsWith("jdk.internal.reflect.")
+                || className.startsWith("sun.reflect.")
+                || className.startsWith("com.sun.proxy.")
+                || className.startsWith("jdk.proxy");
+    }
+
+    private SiteStats statsFor(final String site) {
+        final SiteStats existing = stats.get(site);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (sites.get() >= MAX_SITES) {
+            return stats.computeIfAbsent(OTHER, SiteStats::new);
+        }
+
+        return stats.computeIfAbsent(site, key -> {
+            sites.incrementAndGet();
+            return new SiteStats(key);
+        });
+    }
+
+    /**
+     * Hold times of the connections borrowed by one tag or call site.
+     */
+    public static final class SiteStats {
+        private final String site;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        SiteStats(final String site) {
+            this.site = site;
+        }
+
+        void record(final long heldNanos) {
+            final long nanos = Math.max(0L, heldNanos);
+            count.increment();
+            totalNanos.add(nanos);
+
+            long current;
+            while (nanos > (current = maxNanos.get()) && !maxNanos.compareAndSet(current, nanos)) {
+                // retry
+            }
+        }
+
+        public String getSite() {
+            return site;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalMillis() {
+            return NANOSECONDS.toMillis(totalNanos.sum());
+        }
+
+        public long getMeanMillis() {
+            final long n = count.sum();
+            return n == 0L ? 0L : NANOSECONDS.toMillis(totalNanos.sum() / n);
+        }
+
+        public long getMaxMillis() {
+            return NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return site + " (count=" + getCount() + ", mean=" + getMeanMillis() + "ms, max=" + getMaxMillis() + "ms, total=" + getTotalMillis() + "ms)";
+        }
+    }
+}
@@ -4,8 +4,10 @@ import com.nhn.test.SQLExceptionOverride;
 import com.nhn.test.TestConfig;
 import com.nhn.test.metrics.IMetricsTracker;
 import com.nhn.test.pool.TestPool.PoolInitializationException;
+import com.nhn.test.util.CircuitBreaker;
 import com.nhn.test.util.DriverDataSource;
 import com.nhn.test.util.PropertyElf;
+import com.nhn.test.util.TokenBucket;
 import com.nhn.test.util.UtilityElf;
 import com.nhn.test.util.UtilityElf.DefaultThreadFactory;
 import org.slf4j.Logger;
@@ -27,6 +29,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.nhn.test.pool.ProxyConnection.*;
 import static com.nhn.test.util.ClockSource.*;
@@ -50,6 +53,10 @@ abstract class PoolBase {
 
     SQLExceptionOverride exceptionOverride;
 
+    final CircuitBreaker connectionBreaker;
+    private final TokenBucket creationRateLimiter;
+    final LongAdder connectionCreationFailures = new LongAdder();
+
     private static final String[] RESET_STATES = {"readOnly", "autoCommit", "isolation", "catalog", "netTimeout", "schema"};
     private static final int UNINITIALIZED = -1;
     private static final int TRUE = 1;
@@ -66,6 +73,9 @@ abstract class PoolBase {
     private final String schema;
     private final boolean isReadOnly;
     private final boolean isAutoCommit;
+    final boolean isLazyStateReset;
+    final StatementStatistics statementStatistics;
+    final HoldTimeStatistics holdTimeStatistics;
 
     private final boolean isUseJdbc4Validation;
     private final boolean isIsolateInternalQueries;
@@ -80,6 +90,7 @@ abstract class PoolBase {
         this.schema = config.getSchema();
         this.isReadOnly = config.isReadOnly();
         this.isAutoCommit = config.isAutoCommit();
+        this.isLazyStateReset = config.isLazyStateReset();
         this.exceptionOverride = createInstance(config.getExceptionOverrideClassName(), SQLExceptionOverride.class);
         this.transactionIsolation = UtilityElf.getTransactionIsolation(config.getTransactionIsolation());
 
@@ -89,9 +100,15 @@ abstract class PoolBase {
         this.isIsolateInternalQueries = config.isIsolateInternalQueries();
 
         this.poolName = config.getPoolName();
+        this.statementStatistics = config.isStatementStatistics() || config.getSlowQueryThreshold() > 0
+                ? new StatementStatistics(poolName, config.isStatementStatistics(), config.getSlowQueryThreshold())
+                : null;
+        this.holdTimeStatistics = new HoldTimeStatistics(config.getHoldTimeSampleRate());
         this.connectionTimeout = config.getConnectionTimeout();
         this.validationTimeout = config.getValidationTimeout();
         this.lastConnectionFailure = new AtomicReference<>();
+        this.connectionBreaker = new CircuitBreaker(config.getCircuitBreakerFailureThreshold(), config.getCircuitBreakerOpenTimeout());
+        this.creationRateLimiter = new TokenBucket(config.getConnectionCreationRateLimit());
 
         initializeDataSource();
     }
@@ -103,6 +120,11 @@ abstract class PoolBase {
 
     abstract void recycle(final PoolEntry poolEntry);
 
+    /**
+     * Called once each time the connection circuit breaker opens.
+     */
+    abstract void onCircuitOpened();
+
     // ***********************************************************************
     //                           JDBC methods
     // ***********************************************************************
@@ -128,7 +150,19 @@ abstract class PoolBase {
         }
     }
 
-    boolean isConnectionAlive(final Connection connection) {
+    boolean isConnectionAlive(final PoolEntry poolEntry) {
+        final long start = currentTime();
+        final boolean alive = checkConnectionAlive(poolEntry);
+        if (PoolEvents.ENABLED) {
+            PoolEvents.validated(this, elapsedNanos(start), alive);
+        }
+        return alive;
+    }
+
+    private boolean checkConnectionAlive(final PoolEntry poolEntry) {
+        final Connection connection = poolEntry.connection;
+        // with a deferred reset still owed, the connection may not be at the pool default
+        final boolean autoCommit = (poolEntry.pendingResetBits & DIRTY_BIT_AUTOCOMMIT) != 0 ? poolEntry.autoCommitState : isAutoCommit;
         try {
             try {
                 setNetworkTimeout(connection, validationTimeout);
@@ -149,8 +183,11 @@ abstract class PoolBase {
             }
             finally {
                 setNetworkTimeout(connection, networkTimeout);
+                // the timeout is at the pool default again, a deferred reset no longer owes it
+                poolEntry.networkTimeoutState = networkTimeout;
+                poolEntry.pendingResetBits &= ~DIRTY_BIT_NETTIMEOUT;
 
-                if (isIsolateInternalQueries && !isAutoCommit) {
+                if (isIsolateInternalQueries && !autoCommit) {
                     connection.rollback();
                 }
             }
@@ -181,7 +218,7 @@ abstract class PoolBase {
         return new PoolEntry(newConnection(), this, isReadOnly, isAutoCommit);
     }
 
-    void resetConnectionState(final Connection connection, final ProxyConnection proxyConnection, final int dirtyBits) throws SQLException {
+    int resetConnectionState(final Connection connection, final ProxyConnection proxyConnection, final int dirtyBits) throws SQLException {
         int resetBits = 0;
 
         if ((dirtyBits & DIRTY_BIT_READONLY) != 0 && proxyConnection.getReadOnlyState() != isReadOnly) {
@@ -217,6 +254,86 @@ abstract class PoolBase {
         if (resetBits != 0 && LOGGER.isDebugEnabled()) {
             LOGGER.debug("{} - Reset ({}) on connection {}", poolName, stringFromResetBits(resetBits), connection);
         }
+
+        return resetBits;
+    }
+
+    /**
+     * Record, instead of resetting, the state a borrower left on the connection.  The properties still differing from
+     * the pool defaults are reset by {@link #applyPendingReset} once the next borrower uses the connection.
+     *
+     * @param pendingBits the resets owed from earlier borrows that the borrower neither applied nor overrode
+     */
+    void deferConnectionStateReset(final PoolEntry poolEntry, final ProxyConnection proxyConnection, final int dirtyBits, final int pendingBits) {
+        int resetBits = pendingBits;
+
+        if ((dirtyBits & DIRTY_BIT_READONLY) != 0) {
+            poolEntry.readOnlyState = proxyConnection.getReadOnlyState();
+            resetBits = owed(resetBits, DIRTY_BIT_READONLY, poolEntry.readOnlyState != isReadOnly);
+        }
+
+        if ((dirtyBits & DIRTY_BIT_AUTOCOMMIT) != 0) {
+            poolEntry.autoCommitState = proxyConnection.getAutoCommitState();
+            resetBits = owed(resetBits, DIRTY_BIT_AUTOCOMMIT, poolEntry.autoCommitState != isAutoCommit);
+        }
+
+        if ((dirtyBits & DIRTY_BIT_ISOLATION) != 0) {
+            poolEntry.transactionIsolationState = proxyConnection.getTransactionIsolationState();
+            resetBits = owed(resetBits, DIRTY_BIT_ISOLATION, poolEntry.transactionIsolationState != transactionIsolation);
+        }
+
+        if ((dirtyBits & DIRTY_BIT_CATALOG) != 0) {
+            poolEntry.catalogState = proxyConnection.getCatalogState();
+            resetBits = owed(resetBits, DIRTY_BIT_CATALOG, catalog != null && !catalog.equals(poolEntry.catalogState));
+        }
+
+        if ((dirtyBits & DIRTY_BIT_NETTIMEOUT) != 0) {
+            poolEntry.networkTimeoutState = proxyConnection.getNetworkTimeoutState();
+            resetBits = owed(resetBits, DIRTY_BIT_NETTIMEOUT, poolEntry.networkTimeoutState != networkTimeout);
+        }
+
+        if ((dirtyBits & DIRTY_BIT_SCHEMA) != 0) {
+            poolEntry.schemaState = proxyConnection.getSchemaState();
+            resetBits = owed(resetBits, DIRTY_BIT_SCHEMA, schema != null && !schema.equals(poolEntry.schemaState));
+        }
+
+        poolEntry.pendingResetBits = resetBits;
+    }
+
+    void applyPendingReset(final PoolEntry poolEntry, final int resetBits) throws SQLException {
+        final Connection connection = poolEntry.connection;
+
+        if ((resetBits & DIRTY_BIT_READONLY) != 0) {
+            connection.setReadOnly(isReadOnly);
+        }
+
+        if ((resetBits & DIRTY_BIT_AUTOCOMMIT) != 0) {
+            connection.setAutoCommit(isAutoCommit);
+        }
+
+        if ((resetBits & DIRTY_BIT_ISOLATION) != 0) {
+            connection.setTransactionIsolation(transactionIsolation);
+        }
+
+        if ((resetBits & DIRTY_BIT_CATALOG) != 0) {
+            connection.setCatalog(catalog);
+        }
+
+        if ((resetBits & DIRTY_BIT_NETTIMEOUT) != 0) {
+            setNetworkTimeout(connection, networkTimeout);
+        }
+
+        if ((resetBits & DIRTY_BIT_SCHEMA) != 0) {
+            connection.setSchema(schema);
+        }
+
+        if (resetBits != 0 && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} - Reset ({}) on connection {}", poolName, stringFromResetBits(resetBits), connection);
+        }
+    }
+
+    private static int owed(final int resetBits, final int bit, final boolean differs) {
+        return differs ? resetBits | bit : resetBits & ~bit;
     }
 
     void shutdownNetworkTimeoutExecutor() {
@@ -304,6 +421,11 @@ abstract class PoolBase {
     }
 
     private Connection newConnection() throws Exception {
+        creationRateLimiter.acquire();
+        if (!connectionBreaker.tryAcquirePermission()) {
+            throw new CircuitOpenException();
+        }
+
         final long start = currentTime();
 
         Connection connection = null;
@@ -318,9 +440,21 @@ abstract class PoolBase {
 
             setupConnection(connection);
             lastConnectionFailure.set(null);
+            connectionBreaker.onSuccess();
+            if (PoolEvents.ENABLED) {
+                PoolEvents.created(this, elapsedNanos(start), null);
+            }
             return connection;
         }
         catch (Exception e) {
+            if (connectionBreaker.onFailure()) {
+                onCircuitOpened();
+            }
+            connectionCreationFailures.increment();
+            if (PoolEvents.ENABLED) {
+                PoolEvents.created(this, elapsedNanos(start), e);
+            }
+
             if (connection != null) {
                 quietlyCloseConnection(connection, "(Failed to create/setup connection)");
             }
@@ -511,7 +645,7 @@ abstract class PoolBase {
         }
     }
 
-    private String stringFromResetBits(final int bits) {
+    String stringFromResetBits(final int bits) {
         final StringBuilder sb = new StringBuilder();
         for (int ndx = 0; ndx < RESET_STATES.length; ndx++) {
             if ( (bits & (0b1 << ndx)) != 0) {
@@ -535,6 +669,15 @@ abstract class PoolBase {
         }
     }
 
+    // thrown instead of attempting a connection while the circuit breaker is open; lastConnectionFailure keeps the cause
+    static class CircuitOpenException extends Exception {
+        private static final long serialVersionUID = 929872118275916522L;
+
+        CircuitOpenException() {
+            super("Connection circuit breaker is open", null, false, false);
+        }
+    }
+
     private static class SynchronousExecutor implements Executor {
         @Override
         public void execute(Runnable command) {
@@ -553,6 +696,7 @@ abstract class PoolBase {
         default void recordBorrowTimeoutStats(long startTime) {}
         default void recordBorrowStats(final PoolEntry poolEntry, final long startTime) {}
         default void recordConnectionTimeout() {}
+        default void recordConnectionRejected() {}
 
         @Override
         default void close() {}
@@ -592,6 +736,11 @@ abstract class PoolBase {
             tracker.recordConnectionTimeout();
         }
 
+        @Override
+        public void recordConnectionRejected() {
+            tracker.recordConnectionRejected();
+        }
+
         @Override
         public void close() {
             tracker.close();
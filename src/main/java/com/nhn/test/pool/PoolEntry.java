@@ -2,14 +2,15 @@ package com.nhn.test.pool;
 
 import com.nhn.test.util.ConcurrentBag.IConcurrentBagEntry;
 import com.nhn.test.util.FastList;
+import com.nhn.test.util.TimerWheel.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.nhn.test.util.ClockSource.*;
 
@@ -20,13 +21,33 @@ public class PoolEntry implements IConcurrentBagEntry {
     Connection connection;
     long lastAccessed;
     long lastBorrowed;
+    // last successful background validation; a new connection counts as validated
+    volatile long validatedAt;
+    // the tenant whose schema the connection is set to, or null; changed only by the pool while the entry is borrowed
+    volatile String tenantKey;
+    // the schema to restore when the entry is handed to a borrower outside its tenant, captured when first bound
+    String untaggedSchema;
+
+    // with lazyStateReset, the properties whose reset to the pool defaults is still owed, and the connection's actual
+    // value of each; only touched by the thread holding the entry
+    int pendingResetBits;
+    boolean readOnlyState;
+    boolean autoCommitState;
+    int transactionIsolationState;
+    String catalogState;
+    String schemaState;
+    int networkTimeoutState;
 
     private volatile int state = 0;
     private volatile boolean evict;
 
-    private volatile ScheduledFuture<?> endOfLife;
+    private volatile Timeout endOfLife;
 
     private final FastList<Statement> openStatements;
+    // guards openStatements; a j.u.c lock rather than a monitor so virtual threads do not pin their carrier
+    final ReentrantLock openStatementsLock = new ReentrantLock();
+    final StatementCache statementCache;
+    final SampledLeakTask sampledLeakTask;
     private final TestPool testPool;
 
     private final boolean isReadOnly;
@@ -42,7 +63,12 @@ public class PoolEntry implements IConcurrentBagEntry {
         this.isReadOnly = isReadOnly;
         this.isAutoCommit = isAutoCommit;
         this.lastAccessed = currentTime();
+        this.validatedAt = lastAccessed;
         this.openStatements = new FastList<>(Statement.class, 16);
+
+        final int statementCacheSize = pool.config.getPreparedStatementCacheSize();
+        this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize, testPool.statementCacheCounters) : null;
+        this.sampledLeakTask = pool.config.getLeakDetectionSampleRate() > 0 ? new SampledLeakTask(this) : null;
     }
 
     void recycle(final long lastAccessed)
@@ -53,16 +79,36 @@ public class PoolEntry implements IConcurrentBagEntry {
         }
     }
 
-    void setFutureEol(final ScheduledFuture<?> endOfLife) {
+    void setFutureEol(final Timeout endOfLife) {
         this.endOfLife = endOfLife;
     }
 
-    Connection createProxyConnection(final ProxyLeakTask leakTask, final long now) {
-        return ProxyFactory.getProxyConnection(this, connection, openStatements, leakTask, now, isReadOnly, isAutoCommit);
+    Connection createProxyConnection(final ProxyLeakTask leakTask, final long now, final String holdSite) {
+        final ProxyConnection proxyConnection = ProxyFactory.getProxyConnection(this, connection, openStatements, leakTask, now, isReadOnly, isAutoCommit);
+        proxyConnection.holdSite = holdSite;
+        return proxyConnection;
+    }
+
+    /**
+     * @return the properties reset on the connection, none if the reset was deferred
+     */
+    int resetConnectionState(final ProxyConnection proxyConnection, final int dirtyBits, final int pendingResetBits) throws SQLException {
+        int resetBits = 0;
+        if (testPool.isLazyStateReset) {
+            testPool.deferConnectionStateReset(this, proxyConnection, dirtyBits, pendingResetBits);
+        }
+        else {
+            resetBits = testPool.resetConnectionState(connection, proxyConnection, dirtyBits);
+        }
+        if ((dirtyBits & ProxyConnection.DIRTY_BIT_SCHEMA) != 0 && tenantKey != null) {
+            testPool.untag(this); // the user switched schema, the tag can no longer be trusted
+        }
+        return resetBits;
     }
 
-    void resetConnectionState(final ProxyConnection proxyConnection, final int dirtyBits) throws SQLException {
-        testPool.resetConnectionState(connection, proxyConnection, dirtyBits);
+    void applyPendingReset(final int resetBits) throws SQLException {
+        testPool.applyPendingReset(this, resetBits);
+        pendingResetBits = 0;
     }
 
     String getPoolName() {
@@ -118,11 +164,15 @@ public class PoolEntry implements IConcurrentBagEntry {
 
     Connection close()
     {
-        ScheduledFuture<?> eol = endOfLife;
-        if (eol != null && !eol.isDone() && !eol.cancel(false)) {
+        Timeout eol = endOfLife;
+        if (eol != null && !eol.isDone() && !eol.cancel()) {
             LOGGER.warn("{} - maxLifeTime expiration task cancellation unexpectedly returned false for connection {}", getPoolName(), connection);
         }
 
+        if (statementCache != null) {
+            statementCache.clear();
+        }
+
         Connection con = connection;
         connection = null;
         endOfLife = null;
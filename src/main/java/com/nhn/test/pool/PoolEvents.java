@@ -0,0 +1,207 @@
+package com.nhn.test.pool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for the pool's connection lifecycle, under the "TestCP" category.  Each event type is
+ * enabled or disabled on its own in the recording settings; borrow and return events are off by default because
+ * there is one per getConnection().  A disabled event costs an allocation the JIT removes and one check.
+ * <p>
+ * The events live in a nested class that is only loaded once {@link #ENABLED} has found JFR on the runtime, so the
+ * pool still runs on a Java 8 runtime without it.  Set {@code com.nhn.test.jfr=false} to never emit them.
+ */
+final class PoolEvents {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("com.nhn.test.jfr", "true")) && isJfrAvailable();
+
+    private PoolEvents() {
+        // utility class
+    }
+
+    static void borrowed(final PoolBase pool, final long waitNanos, final boolean validated, final boolean success) {
+        Jfr.borrowed(pool, waitNanos, validated, success);
+    }
+
+    static void returned(final PoolEntry poolEntry, final long heldMillis, final int resetBits, final boolean rolledBack) {
+        Jfr.returned(poolEntry, heldMillis, resetBits, rolledBack);
+    }
+
+    static void created(final PoolBase pool, final long durationNanos, final Exception failure) {
+        Jfr.created(pool, durationNanos, failure);
+    }
+
+    static void validated(final PoolBase pool, final long durationNanos, final boolean alive) {
+        Jfr.validated(pool, durationNanos, alive);
+    }
+
+    static void closed(final PoolBase pool, final String closureReason) {
+        Jfr.closed(pool, closureReason);
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, PoolEvents.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static final class Jfr {
+        static void borrowed(final PoolBase pool, final long waitNanos, final boolean validated, final boolean success) {
+            final ConnectionBorrowEvent event = new ConnectionBorrowEvent();
+            if (event.shouldCommit()) {
+                event.pool = pool.poolName;
+                event.waitTime = waitNanos;
+                event.validated = validated;
+                event.success = success;
+                event.commit();
+            }
+        }
+
+        static void returned(final PoolEntry poolEntry, final long heldMillis, final int resetBits, final boolean rolledBack) {
+            final ConnectionReturnEvent event = new ConnectionReturnEvent();
+            if (event.shouldCommit()) {
+                final PoolBase pool = poolEntry.getPoolBase();
+                event.pool = pool.poolName;
+                event.heldTime = heldMillis;
+                event.resetState = resetBits != 0 ? pool.stringFromResetBits(resetBits) : "";
+                event.rolledBack = rolledBack;
+                event.commit();
+            }
+        }
+
+        static void created(final PoolBase pool, final long durationNanos, final Exception failure) {
+            final ConnectionCreateEvent event = new ConnectionCreateEvent();
+            if (event.shouldCommit()) {
+                event.pool = pool.poolName;
+                event.creationTime = durationNanos;
+                event.success = failure == null;
+                event.failure = failure != null ? String.valueOf(failure.getMessage()) : null;
+                event.commit();
+            }
+        }
+
+        static void validated(final PoolBase pool, final long durationNanos, final boolean alive) {
+            final ConnectionValidationEvent event = new ConnectionValidationEvent();
+            if (event.shouldCommit()) {
+                event.pool = pool.poolName;
+                event.validationTime = durationNanos;
+                event.alive = alive;
+                event.commit();
+            }
+        }
+
+        static void closed(final PoolBase pool, final String closureReason) {
+            final ConnectionCloseEvent event = new ConnectionCloseEvent();
+            if (event.shouldCommit()) {
+                event.pool = pool.poolName;
+                event.reason = closureReason;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("com.nhn.test.ConnectionBorrow")
+    @Label("Connection Borrow")
+    @Description("A getConnection() call, successful or timed out")
+    @Category("TestCP")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ConnectionBorrowEvent extends Event {
+        @Label("Pool")
+        String pool;
+
+        @Label("Wait Time")
+        @Description("Time spent in the pool, including inline validation")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitTime;
+
+        @Label("Validated")
+        @Description("Whether the connection was validated before being handed out")
+        boolean validated;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.nhn.test.ConnectionReturn")
+    @Label("Connection Return")
+    @Description("A Connection.close() returning the connection to the pool")
+    @Category("TestCP")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ConnectionReturnEvent extends Event {
+        @Label("Pool")
+        String pool;
+
+        @Label("Held Time")
+        @Timespan(Timespan.MILLISECONDS)
+        long heldTime;
+
+        @Label("Reset State")
+        @Description("Connection properties reset to the pool defaults on return")
+        String resetState;
+
+        @Label("Rolled Back")
+        @Description("Whether an uncommitted transaction was rolled back")
+        boolean rolledBack;
+    }
+
+    @Name("com.nhn.test.ConnectionCreate")
+    @Label("Connection Create")
+    @Description("An attempt to open a new physical connection")
+    @Category("TestCP")
+    @StackTrace(false)
+    static final class ConnectionCreateEvent extends Event {
+        @Label("Pool")
+        String pool;
+
+        @Label("Creation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long creationTime;
+
+        @Label("Success")
+        boolean success;
+
+        @Label("Failure")
+        String failure;
+    }
+
+    @Name("com.nhn.test.ConnectionValidation")
+    @Label("Connection Validation")
+    @Description("An aliveness check of a connection")
+    @Category("TestCP")
+    @StackTrace(false)
+    static final class ConnectionValidationEvent extends Event {
+        @Label("Pool")
+        String pool;
+
+        @Label("Validation Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long validationTime;
+
+        @Label("Alive")
+        boolean alive;
+    }
+
+    @Name("com.nhn.test.ConnectionClose")
+    @Label("Connection Close")
+    @Description("A physical connection removed from the pool")
+    @Category("TestCP")
+    @StackTrace(false)
+    static final class ConnectionCloseEvent extends Event {
+        @Label("Pool")
+        String pool;
+
+        @Label("Reason")
+        String reason;
+    }
+}
@@ -0,0 +1,100 @@
+package com.nhn.test.pool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.nhn.test.util.ClockSource.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Adaptive sizing for a pool with adaptivePoolSizing enabled.  Borrowers record their wait and hold times; once per
+ * period the pool calls {@link #sample} and the effective maximum pool size moves within [minimumIdle,
+ * maximumPoolSize]:
+ * <ul>
+ *   <li>grow additively, by at most maxStep per period, while threads are waiting or the average borrow wait is above
+ *       the target, which also caps the connection creation rate;</li>
+ *   <li>shrink multiplicatively, by at most a quarter per period, towards the Little's-law demand (total hold time
+ *       over the period, i.e. the mean number of busy connections) plus headroom, and never below the current active
+ *       count plus one.</li>
+ * </ul>
+ */
+final class PoolSizeController {
+    private static final double HEADROOM = 1.25;
+
+    private final int maxStep;
+    private final long targetWaitNanos;
+
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final LongAdder holdNanos = new LongAdder();
+
+    private volatile int effectiveSize;
+    private volatile String lastDecision = "none";
+    private long lastSample = currentTime();
+
+    PoolSizeController(final int initialSize, final int maxStep, final long targetWaitMs) {
+        this.effectiveSize = initialSize;
+        this.maxStep = Math.max(1, maxStep);
+        this.targetWaitNanos = MILLISECONDS.toNanos(targetWaitMs);
+    }
+
+    void recordBorrow(final PoolEntry poolEntry, final long startTime) {
+        final long now = currentTime();
+        poolEntry.lastBorrowed = now;
+        borrows.increment();
+        borrowWaitNanos.add(elapsedNanos(startTime, now));
+    }
+
+    void recordRelease(final PoolEntry poolEntry) {
+        // up to the release itself: lastAccessed only tracks the last statement, not time held after it
+        if (poolEntry.lastBorrowed != 0L) {
+            holdNanos.add(elapsedNanos(poolEntry.lastBorrowed, currentTime()));
+        }
+    }
+
+    int getEffectiveSize() {
+        return effectiveSize;
+    }
+
+    String getLastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * Called from a single thread once per period.
+     *
+     * @return the new effective maximum pool size
+     */
+    int sample(final int floor, final int ceiling, final int active, final int waiters) {
+        final long now = currentTime();
+        final long intervalNanos = Math.max(1L, elapsedNanos(lastSample, now));
+        lastSample = now;
+
+        return resize(floor, ceiling, active, waiters, borrows.sumThenReset(), borrowWaitNanos.sumThenReset(), holdNanos.sumThenReset(), intervalNanos);
+    }
+
+    int resize(final int floor, final int ceiling, final int active, final int waiters,
+               final long borrowCount, final long waitNanos, final long heldNanos, final long intervalNanos) {
+        final int size = Math.max(floor, Math.min(ceiling, effectiveSize));
+        final long avgWaitNanos = borrowCount > 0 ? waitNanos / borrowCount : 0L;
+        final double demand = (double) heldNanos / intervalNanos;
+
+        int newSize = size;
+        if (waiters > 0 || avgWaitNanos > targetWaitNanos) {
+            newSize = Math.min(ceiling, size + Math.min(maxStep, Math.max(1, waiters)));
+        }
+        else {
+            final int target = Math.max(floor, Math.max(active + 1, (int) Math.ceil(demand * HEADROOM)));
+            if (target < size) {
+                newSize = Math.max(target, size - Math.max(1, size / 4));
+            }
+        }
+
+        if (newSize != effectiveSize) {
+            lastDecision = String.format("%s %d->%d (active=%d, waiting=%d, avgWaitMs=%.2f, demand=%.2f)",
+                    newSize > size ? "grow" : "shrink", effectiveSize, newSize, active, waiters, avgWaitNanos / 1_000_000.0, demand);
+            effectiveSize = newSize;
+        }
+
+        return newSize;
+    }
+}
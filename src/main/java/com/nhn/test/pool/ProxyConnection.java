@@ -9,11 +9,15 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.nhn.test.SQLExceptionOverride.Override.DO_NOT_EVICT;
 import static com.nhn.test.util.ClockSource.currentTime;
+import static com.nhn.test.util.ClockSource.elapsedMillis;
+import static com.nhn.test.util.ClockSource.elapsedNanos;
 
 public abstract class ProxyConnection implements Connection {
     static final int DIRTY_BIT_READONLY   = 0b000001;
@@ -32,10 +36,14 @@ public abstract class ProxyConnection implements Connection {
 
     private final PoolEntry poolEntry;
     private final ProxyLeakTask leakTask;
+    private final long leakToken;
     private final FastList<Statement> openStatements;
 
     private int dirtyBits;
+    private int pendingResetBits;
     private long lastAccess;
+    private final long borrowedAt;
+    String holdSite; // the tag or call site hold time is attributed to, or null
     private boolean isCommitStateDirty;
 
     private boolean isReadOnly;
@@ -74,9 +82,12 @@ public abstract class ProxyConnection implements Connection {
         this.delegate = connection;
         this.openStatements = openStatements;
         this.leakTask = leakTask;
+        this.leakToken = leakTask.borrowToken();
         this.lastAccess = now;
+        this.borrowedAt = now;
         this.isReadOnly = isReadOnly;
         this.isAutoCommit = isAutoCommit;
+        this.pendingResetBits = poolEntry.pendingResetBits;
     }
 
     @Override
@@ -120,6 +131,27 @@ public abstract class ProxyConnection implements Connection {
         return poolEntry;
     }
 
+    /**
+     * With lazyStateReset, reset the state a previous borrower left on the connection before it is first used.
+     */
+    final void applyPendingReset() throws SQLException {
+        if (pendingResetBits != 0) {
+            poolEntry.applyPendingReset(pendingResetBits);
+            pendingResetBits = 0;
+        }
+    }
+
+    // true if a reset of the property was still owed and the connection already has the requested value, so the
+    // driver call can be skipped; either way the reset is no longer owed
+    private boolean hasPendingState(final int bit, final boolean matches) {
+        if ((pendingResetBits & bit) == 0) {
+            return false;
+        }
+
+        pendingResetBits &= ~bit;
+        return matches;
+    }
+
     @SuppressWarnings("ConstantConditions")
     final SQLException checkException(SQLException sqle) {
         boolean evict = false;
@@ -157,8 +189,15 @@ public abstract class ProxyConnection implements Connection {
         return sqle;
     }
 
-    final synchronized void untrackStatement(final Statement statement) {
-        openStatements.remove(statement);
+    final void untrackStatement(final Statement statement) {
+        final ReentrantLock lock = poolEntry.openStatementsLock;
+        lock.lock();
+        try {
+            openStatements.remove(statement);
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     final void markCommitStateDirty() {
@@ -172,17 +211,92 @@ public abstract class ProxyConnection implements Connection {
 
     void cancelLeakTask()
     {
-        leakTask.cancel();
+        // a stale proxy must not cancel leak tracking for the entry's current borrower
+        leakTask.cancel(leakToken);
     }
 
-    private synchronized <T extends Statement> T trackStatement(final T statement) {
-        openStatements.add(statement);
+    private <T extends Statement> T trackStatement(final T statement) {
+        final ReentrantLock lock = poolEntry.openStatementsLock;
+        lock.lock();
+        try {
+            openStatements.add(statement);
+        }
+        finally {
+            lock.unlock();
+        }
 
         return statement;
     }
 
+    private static <T extends Statement> T withSql(final T proxy, final String sql) {
+        ((ProxyStatement) proxy).sql = sql;
+        return proxy;
+    }
+
+    private PreparedStatement prepareCachedStatement(final StatementCache.Key key) throws SQLException {
+        PreparedStatement statement = poolEntry.statementCache.take(key);
+        if (statement == null) {
+            if (key.holdability != StatementCache.DEFAULT_HOLDABILITY) {
+                statement = delegate.prepareStatement(key.sql, key.resultSetType, key.concurrency, key.holdability);
+            }
+            else if (key.resultSetType != ResultSet.TYPE_FORWARD_ONLY || key.concurrency != ResultSet.CONCUR_READ_ONLY) {
+                statement = delegate.prepareStatement(key.sql, key.resultSetType, key.concurrency);
+            }
+            else {
+                statement = delegate.prepareStatement(key.sql);
+            }
+        }
+
+        final PreparedStatement proxy = ProxyFactory.getProxyPreparedStatement(this, trackStatement(statement));
+        ((ProxyStatement) proxy).cacheKey = key;
+        ((ProxyStatement) proxy).sql = key.sql;
+        return proxy;
+    }
+
+    /**
+     * Called on logical close of a cacheable statement, after it was untracked.  The open result set, parameters,
+     * batch, warnings and changed settings are reset first, so the next borrower gets a statement as if freshly
+     * prepared; a statement with a change that cannot be undone (cursor name, closeOnCompletion) is not cached.
+     *
+     * @return true if the physical statement was returned to the cache and must not be closed
+     */
+    final boolean returnToCache(final StatementCache.Key key, final ProxyStatement proxy) {
+        if (delegate == ClosedConnection.CLOSED_CONNECTION || poolEntry.isMarkedEvicted()) {
+            return false;
+        }
+
+        final PreparedStatement statement = (PreparedStatement) proxy.delegate;
+        try {
+            final ResultSet resultSet = statement.getResultSet();
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            statement.clearParameters();
+            if (!proxy.restoreSettings()) {
+                return false;
+            }
+        }
+        catch (SQLException e) {
+            LOGGER.debug("{} - Failed to reset statement {} for reuse, closing it", poolEntry.getPoolName(), statement, e);
+            return false;
+        }
+
+        return poolEntry.statementCache.offer(key, statement);
+    }
+
+    private void closeStatements() {
+        final ReentrantLock lock = poolEntry.openStatementsLock;
+        lock.lock();
+        try {
+            closeOpenStatements();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     @SuppressWarnings("EmptyTryBlock")
-    private synchronized void closeStatements() {
+    private void closeOpenStatements() {
         final int size = openStatements.size();
         if (size > 0) {
             for (int i = 0; i < size && delegate != ClosedConnection.CLOSED_CONNECTION; i++) {
@@ -213,15 +327,18 @@ public abstract class ProxyConnection implements Connection {
         if (delegate != ClosedConnection.CLOSED_CONNECTION) {
             leakTask.cancel();
 
+            int resetBits = 0;
+            boolean rolledBack = false;
             try {
                 if (isCommitStateDirty && !isAutoCommit) {
                     delegate.rollback();
+                    rolledBack = true;
                     lastAccess = currentTime();
                     LOGGER.debug("{} - Executed rollback on connection {} due to dirty commit state on close().", poolEntry.getPoolName(), delegate);
                 }
 
                 if (dirtyBits != 0) {
-                    poolEntry.resetConnectionState(this, dirtyBits);
+                    resetBits = poolEntry.resetConnectionState(this, dirtyBits, pendingResetBits);
                     lastAccess = currentTime();
                 }
 
@@ -235,6 +352,13 @@ public abstract class ProxyConnection implements Connection {
             }
             finally {
                 delegate = ClosedConnection.CLOSED_CONNECTION;
+                pendingResetBits = 0;
+                if (PoolEvents.ENABLED) {
+                    PoolEvents.returned(poolEntry, elapsedMillis(borrowedAt), resetBits, rolledBack);
+                }
+                if (holdSite != null) {
+                    poolEntry.getPoolBase().holdTimeStatistics.record(holdSite, elapsedNanos(borrowedAt));
+                }
                 poolEntry.recycle(lastAccess);
             }
         }
@@ -248,72 +372,95 @@ public abstract class ProxyConnection implements Connection {
 
     @Override
     public Statement createStatement() throws SQLException {
+        applyPendingReset();
         return ProxyFactory.getProxyStatement(this, trackStatement(delegate.createStatement()));
     }
 
     @Override
     public Statement createStatement(int resultSetType, int concurrency) throws SQLException {
+        applyPendingReset();
         return ProxyFactory.getProxyStatement(this, trackStatement(delegate.createStatement(resultSetType, concurrency)));
     }
 
     @Override
     public Statement createStatement(int resultSetType, int concurrency, int holdability) throws SQLException {
+        applyPendingReset();
         return ProxyFactory.getProxyStatement(this, trackStatement(delegate.createStatement(resultSetType, concurrency, holdability)));
     }
 
     @Override
     public CallableStatement prepareCall(String sql) throws SQLException {
-        return ProxyFactory.getProxyCallableStatement(this, trackStatement(delegate.prepareCall(sql)));
+        applyPendingReset();
+        return withSql(ProxyFactory.getProxyCallableStatement(this, trackStatement(delegate.prepareCall(sql))), sql);
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int concurrency) throws SQLException {
-        return ProxyFactory.getProxyCallableStatement(this, trackStatement(delegate.prepareCall(sql, resultSetType, concurrency)));
+        applyPendingReset();
+        return withSql(ProxyFactory.getProxyCallableStatement(this, trackStatement(delegate.prepareCall(sql, resultSetType, concurrency))), sql);
     }
 
     @Override
     public CallableStatement prepareCall(String sql, int resultSetType, int concurrency, int holdability) throws SQLException {
-        return ProxyFactory.getProxyCallableStatement(this, trackStatement(delegate.prepareCall(sql, resultSetType, concurrency, holdability)));
+        applyPendingReset();
+        return withSql(ProxyFactory.getProxyCallableStatement(this, trackStatement(delegate.prepareCall(sql, resultSetType, concurrency, holdability))), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql)));
+        applyPendingReset();
+        if (poolEntry.statementCache != null) {
+            return prepareCachedStatement(new StatementCache.Key(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, StatementCache.DEFAULT_HOLDABILITY));
+        }
+        return withSql(ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql))), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, autoGeneratedKeys)));
+        applyPendingReset();
+        return withSql(ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, autoGeneratedKeys))), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int concurrency) throws SQLException {
-        return ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, resultSetType, concurrency)));
+        applyPendingReset();
+        if (poolEntry.statementCache != null) {
+            return prepareCachedStatement(new StatementCache.Key(sql, resultSetType, concurrency, StatementCache.DEFAULT_HOLDABILITY));
+        }
+        return withSql(ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, resultSetType, concurrency))), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int concurrency, int holdability) throws SQLException {
-        return ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, resultSetType, concurrency, holdability)));
+        applyPendingReset();
+        if (poolEntry.statementCache != null) {
+            return prepareCachedStatement(new StatementCache.Key(sql, resultSetType, concurrency, holdability));
+        }
+        return withSql(ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, resultSetType, concurrency, holdability))), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, columnIndexes)));
+        applyPendingReset();
+        return withSql(ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, columnIndexes))), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, columnNames)));
+        applyPendingReset();
+        return withSql(ProxyFactory.getProxyPreparedStatement(this, trackStatement(delegate.prepareStatement(sql, columnNames))), sql);
     }
 
     @Override
     public DatabaseMetaData getMetaData() throws SQLException {
+        applyPendingReset();
         markCommitStateDirty();
         return ProxyFactory.getProxyDatabaseMetaData(this, delegate.getMetaData());
     }
 
     @Override
     public void commit() throws SQLException {
+        applyPendingReset();
         delegate.commit();
         isCommitStateDirty = false;
         lastAccess = currentTime();
@@ -321,6 +468,7 @@ public abstract class ProxyConnection implements Connection {
 
     @Override
     public void rollback() throws SQLException {
+        applyPendingReset();
         delegate.rollback();
         isCommitStateDirty = false;
         lastAccess = currentTime();
@@ -328,6 +476,7 @@ public abstract class ProxyConnection implements Connection {
 
     @Override
     public void rollback(Savepoint savepoint) throws SQLException {
+        applyPendingReset();
         delegate.rollback(savepoint);
         isCommitStateDirty = false;
         lastAccess = currentTime();
@@ -335,14 +484,18 @@ public abstract class ProxyConnection implements Connection {
 
     @Override
     public void setAutoCommit(boolean autoCommit) throws SQLException {
-        delegate.setAutoCommit(autoCommit);
+        if (!hasPendingState(DIRTY_BIT_AUTOCOMMIT, poolEntry.autoCommitState == autoCommit)) {
+            delegate.setAutoCommit(autoCommit);
+        }
         isAutoCommit = autoCommit;
         dirtyBits |= DIRTY_BIT_AUTOCOMMIT;
     }
 
     @Override
     public void setReadOnly(boolean readOnly) throws SQLException {
-        delegate.setReadOnly(readOnly);
+        if (!hasPendingState(DIRTY_BIT_READONLY, poolEntry.readOnlyState == readOnly)) {
+            delegate.setReadOnly(readOnly);
+        }
         isReadOnly = readOnly;
         isCommitStateDirty = false;
         dirtyBits |= DIRTY_BIT_READONLY;
@@ -350,28 +503,36 @@ public abstract class ProxyConnection implements Connection {
 
     @Override
     public void setTransactionIsolation(int level) throws SQLException {
-        delegate.setTransactionIsolation(level);
+        if (!hasPendingState(DIRTY_BIT_ISOLATION, poolEntry.transactionIsolationState == level)) {
+            delegate.setTransactionIsolation(level);
+        }
         transactionIsolation = level;
         dirtyBits |= DIRTY_BIT_ISOLATION;
     }
 
     @Override
     public void setCatalog(String catalog) throws SQLException {
-        delegate.setCatalog(catalog);
+        if (!hasPendingState(DIRTY_BIT_CATALOG, Objects.equals(poolEntry.catalogState, catalog))) {
+            delegate.setCatalog(catalog);
+        }
         dbcatalog = catalog;
         dirtyBits |= DIRTY_BIT_CATALOG;
     }
 
     @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
-        delegate.setNetworkTimeout(executor, milliseconds);
+        if (!hasPendingState(DIRTY_BIT_NETTIMEOUT, poolEntry.networkTimeoutState == milliseconds)) {
+            delegate.setNetworkTimeout(executor, milliseconds);
+        }
         networkTimeout = milliseconds;
         dirtyBits |= DIRTY_BIT_NETTIMEOUT;
     }
 
     @Override
     public void setSchema(String schema) throws SQLException {
-        delegate.setSchema(schema);
+        if (!hasPendingState(DIRTY_BIT_SCHEMA, Objects.equals(poolEntry.schemaState, schema))) {
+            delegate.setSchema(schema);
+        }
         dbschema = schema;
         dirtyBits |= DIRTY_BIT_SCHEMA;
     }
@@ -384,6 +545,7 @@ public abstract class ProxyConnection implements Connection {
     @Override
     @SuppressWarnings("unchecked")
     public final <T> T unwrap(Class<T> iface) throws SQLException {
+        applyPendingReset(); // the caller works on the native connection from here on
         if (iface.isInstance(delegate)) {
             return (T) delegate;
         }
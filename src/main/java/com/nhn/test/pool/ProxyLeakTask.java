@@ -1,17 +1,18 @@
 package com.nhn.test.pool;
 
+import com.nhn.test.util.TimerWheel;
+import com.nhn.test.util.TimerWheel.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 public class ProxyLeakTask implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyLeakTask.class);
     static final ProxyLeakTask NO_LEAK;
 
-    private ScheduledFuture<?> scheduledFuture;
+    private Timeout timeout;
     private String connectionName;
     private Exception exception;
     private String threadName;
@@ -20,7 +21,7 @@ public class ProxyLeakTask implements Runnable {
     static {
         NO_LEAK = new ProxyLeakTask() {
             @Override
-            void schedule(ScheduledExecutorService executorService, long leakDetectionThreshold) {}
+            void schedule(TimerWheel timerWheel, long leakDetectionThreshold) {}
 
             @Override
             public void run() {}
@@ -31,15 +32,19 @@ public class ProxyLeakTask implements Runnable {
     }
 
     ProxyLeakTask(final PoolEntry poolEntry) {
-        this.exception = new Exception("Apparent connection leak detected");
-        this.threadName = Thread.currentThread().getName();
+        this(poolEntry, Thread.currentThread().getName(), new Exception("Apparent connection leak detected"));
+    }
+
+    ProxyLeakTask(final PoolEntry poolEntry, final String threadName, final Exception exception) {
+        this.exception = exception;
+        this.threadName = threadName;
         this.connectionName = poolEntry.connection.toString();
     }
 
-    private ProxyLeakTask() {}
+    ProxyLeakTask() {}
 
-    void schedule(ScheduledExecutorService executorService, long leakDetectionThreshold) {
-        scheduledFuture = executorService.schedule(this, leakDetectionThreshold, TimeUnit.MILLISECONDS);
+    void schedule(TimerWheel timerWheel, long leakDetectionThreshold) {
+        timeout = timerWheel.schedule(this, leakDetectionThreshold, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -47,17 +52,41 @@ public class ProxyLeakTask implements Runnable {
         isLeaked = true;
 
         final StackTraceElement[] stackTrace = exception.getStackTrace();
-        final StackTraceElement[] trace = new StackTraceElement[stackTrace.length - 5];
-        System.arraycopy(stackTrace, 5, trace, 0, trace.length);
+        int from = 0;
+        while (from < stackTrace.length && isPoolFrame(stackTrace[from].getClassName())) {
+            from++;
+        }
 
-        exception.setStackTrace(trace);
+        exception.setStackTrace(Arrays.copyOfRange(stackTrace, from, stackTrace.length));
         LOGGER.warn("Connection leak detection triggered for {} on thread {}, stack trace follows", connectionName, threadName, exception);
     }
 
     void cancel() {
-        scheduledFuture.cancel(false);
+        timeout.cancel();
         if (isLeaked) {
             LOGGER.info("Previously reported leaked connection {} on thread {} was returned to the pool (unleaked)", connectionName, threadName);
         }
     }
+
+    /**
+     * @return identifies the borrow the task currently tracks, for tasks shared across borrows
+     */
+    long borrowToken() {
+        return 0L;
+    }
+
+    /**
+     * Cancel the task if it still tracks the borrow identified by the token; a task created per borrow always does.
+     */
+    void cancel(final long borrowToken) {
+        cancel();
+    }
+
+    // the pool's own borrow path at the top of a captured stack
+    static boolean isPoolFrame(final String className) {
+        return className.equals(ProxyLeakTask.class.getName())
+                || className.equals(SampledLeakTask.class.getName())
+                || className.equals(ProxyLeakTaskFactory.class.getName())
+                || HoldTimeStatistics.isPoolFrame(className);
+    }
 }
@@ -1,28 +1,130 @@
 package com.nhn.test.pool;
 
-import java.util.concurrent.ScheduledExecutorService;
+import com.nhn.test.util.TimerWheel;
+
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static com.nhn.test.util.ClockSource.currentTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 class ProxyLeakTaskFactory {
-    private ScheduledExecutorService executorService;
-    private long leakDetectionThreshold;
+    private TimerWheel timerWheel;
+    private volatile long leakDetectionThreshold;
+
+    // > 0 selects sampled mode: entries are scanned for leaks instead of scheduling a task per borrow
+    private final int sampleRate;
+    private final Supplier<Collection<PoolEntry>> inUseEntries;
+    // a scan is pending on the timer wheel; scans stop while the threshold is 0
+    private final AtomicBoolean scanScheduled = new AtomicBoolean();
+
+    ProxyLeakTaskFactory(final long leakDetectionThreshold, final TimerWheel timerWheel) {
+        this(leakDetectionThreshold, timerWheel, 0, null);
+    }
 
-    ProxyLeakTaskFactory(final long leakDetectionThreshold, final ScheduledExecutorService executorService) {
-        this.executorService = executorService;
+    ProxyLeakTaskFactory(final long leakDetectionThreshold, final TimerWheel timerWheel, final int sampleRate, final Supplier<Collection<PoolEntry>> inUseEntries) {
+        this.timerWheel = timerWheel;
         this.leakDetectionThreshold = leakDetectionThreshold;
+        this.sampleRate = sampleRate;
+        this.inUseEntries = inUseEntries;
+
+        if (sampleRate > 0 && leakDetectionThreshold > 0) {
+            scanScheduled.set(true);
+            scheduleScan();
+        }
     }
 
     ProxyLeakTask schedule(final PoolEntry poolEntry) {
-        return (leakDetectionThreshold == 0) ? ProxyLeakTask.NO_LEAK : scheduleNewTask(poolEntry);
+        if (leakDetectionThreshold == 0) {
+            return ProxyLeakTask.NO_LEAK;
+        }
+        else if (sampleRate > 0) {
+            final SampledLeakTask task = poolEntry.sampledLeakTask;
+            task.arm(sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+            return task;
+        }
+
+        return scheduleNewTask(poolEntry);
+    }
+
+    /**
+     * Capture the calling thread's stack for a borrow that will be completed on another thread, see
+     * {@link #schedule(PoolEntry, Thread, Exception)}.
+     *
+     * @return the stack, or null if leak detection is off or the borrow is not sampled
+     */
+    Exception captureBorrowStack() {
+        if (leakDetectionThreshold == 0 || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)) {
+            return null;
+        }
+
+        return new Exception("Apparent connection leak detected");
+    }
+
+    /**
+     * Like {@link #schedule(PoolEntry)}, but reports a leak against the given borrower rather than the current thread.
+     */
+    ProxyLeakTask schedule(final PoolEntry poolEntry, final Thread borrower, final Exception borrowStack) {
+        if (leakDetectionThreshold == 0) {
+            return ProxyLeakTask.NO_LEAK;
+        }
+        else if (sampleRate > 0) {
+            final SampledLeakTask task = poolEntry.sampledLeakTask;
+            task.arm(borrower, borrowStack);
+            return task;
+        }
+        else if (borrowStack == null) {
+            return ProxyLeakTask.NO_LEAK; // leak detection was enabled after the borrow started
+        }
+
+        final ProxyLeakTask task = new ProxyLeakTask(poolEntry, borrower.getName(), borrowStack);
+        task.schedule(timerWheel, leakDetectionThreshold);
+        return task;
     }
 
     void updateLeakDetectionThreshold(final long leakDetectionThreshold) {
         this.leakDetectionThreshold = leakDetectionThreshold;
+        if (sampleRate > 0 && leakDetectionThreshold > 0 && scanScheduled.compareAndSet(false, true)) {
+            scheduleScan();
+        }
     }
 
     private ProxyLeakTask scheduleNewTask(PoolEntry poolEntry) {
         ProxyLeakTask task = new ProxyLeakTask(poolEntry);
-        task.schedule(executorService, leakDetectionThreshold);
+        task.schedule(timerWheel, leakDetectionThreshold);
 
         return task;
     }
+
+    // the period follows the current threshold, so a changed threshold takes effect from the next scan
+    private void scheduleScan() {
+        // a quarter of the threshold keeps reports within 25% of it, bounded to [100ms, 1s]
+        final long period = Math.min(1000L, Math.max(100L, leakDetectionThreshold / 4));
+        timerWheel.schedule(this::scan, period, MILLISECONDS);
+    }
+
+    private void scan() {
+        final long threshold = leakDetectionThreshold;
+        if (threshold == 0) {
+            scanScheduled.set(false);
+            // a threshold set between the read above and the reset is not picked up by updateLeakDetectionThreshold
+            if (leakDetectionThreshold == 0 || !scanScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            scheduleScan();
+            return;
+        }
+
+        try {
+            final long now = currentTime();
+            for (PoolEntry poolEntry : inUseEntries.get()) {
+                poolEntry.sampledLeakTask.checkLeak(threshold, now);
+            }
+        }
+        finally {
+            scheduleScan();
+        }
+    }
 }
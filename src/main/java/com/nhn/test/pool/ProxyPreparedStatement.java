@@ -13,28 +13,59 @@ public abstract class ProxyPreparedStatement extends ProxyStatement implements P
     //              Overridden java.sql.PreparedStatement Methods
     // **********************************************************************
 
+    @Override
+    public void addBatch() throws SQLException {
+        changedSettings |= SETTING_BATCH;
+        ((PreparedStatement) delegate).addBatch();
+    }
+
     @Override
     public boolean execute() throws SQLException {
         connection.markCommitStateDirty();
-        return ((PreparedStatement) delegate).execute();
+        final long start = beginExecution();
+        try {
+            return ((PreparedStatement) delegate).execute();
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
         connection.markCommitStateDirty();
-        ResultSet resultSet = ((PreparedStatement) delegate).executeQuery();
+        final long start = beginExecution();
+        final ResultSet resultSet;
+        try {
+            resultSet = ((PreparedStatement) delegate).executeQuery();
+        }
+        finally {
+            endExecution(sql, start);
+        }
         return ProxyFactory.getProxyResultSet(connection, this, resultSet);
     }
 
     @Override
     public int executeUpdate() throws SQLException {
         connection.markCommitStateDirty();
-        return ((PreparedStatement) delegate).executeUpdate();
+        final long start = beginExecution();
+        try {
+            return ((PreparedStatement) delegate).executeUpdate();
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public long executeLargeUpdate() throws SQLException {
         connection.markCommitStateDirty();
-        return ((PreparedStatement) delegate).executeLargeUpdate();
+        final long start = beginExecution();
+        try {
+            return ((PreparedStatement) delegate).executeLargeUpdate();
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 }
@@ -4,17 +4,41 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import static com.nhn.test.util.ClockSource.currentTime;
+import static com.nhn.test.util.ClockSource.elapsedNanos;
 
 public abstract class ProxyStatement implements Statement {
+    private static final AtomicIntegerFieldUpdater<ProxyStatement> CLOSED_UPDATER = AtomicIntegerFieldUpdater.newUpdater(ProxyStatement.class, "closed");
+
+    // settings a borrower changed, undone before a cached statement is handed to the next borrower
+    static final int SETTING_BATCH           = 0b000000001;
+    static final int SETTING_MAX_ROWS        = 0b000000010;
+    static final int SETTING_QUERY_TIMEOUT   = 0b000000100;
+    static final int SETTING_MAX_FIELD_SIZE  = 0b000001000;
+    static final int SETTING_ESCAPE          = 0b000010000;
+    static final int SETTING_FETCH_SIZE      = 0b000100000;
+    static final int SETTING_FETCH_DIRECTION = 0b001000000;
+    static final int SETTING_POOLABLE        = 0b010000000;
+    static final int SETTING_NOT_REUSABLE    = 0b100000000; // cursor name, closeOnCompletion
+
     protected final ProxyConnection connection;
     final Statement delegate;
+    private final StatementStatistics statistics;
 
-    private boolean isClosed;
+    private volatile int closed;
+    StatementCache.Key cacheKey;
+    String sql; // of a prepared statement, for its timings
     private ResultSet proxyResultSet;
+    int changedSettings;
+    private int defaultFetchSize;
+    private int defaultFetchDirection;
 
     ProxyStatement(ProxyConnection connection, Statement statement) {
         this.connection = connection;
         this.delegate = statement;
+        this.statistics = connection.getPoolEntry().getPoolBase().statementStatistics;
     }
 
     @SuppressWarnings("unused")
@@ -22,6 +46,56 @@ public abstract class ProxyStatement implements Statement {
         return connection.checkException(e);
     }
 
+    final long beginExecution() {
+        return statistics != null ? currentTime() : 0L;
+    }
+
+    final void endExecution(final String sql, final long startTime) {
+        if (statistics != null) {
+            statistics.record(sql, elapsedNanos(startTime));
+        }
+    }
+
+    /**
+     * Undo the settings this borrower changed on a cached statement, and clear its batch and warnings.
+     *
+     * @return false if a change cannot be undone and the statement must not be cached
+     */
+    final boolean restoreSettings() throws SQLException {
+        final int changed = changedSettings;
+        if ((changed & SETTING_NOT_REUSABLE) != 0) {
+            return false;
+        }
+
+        if ((changed & SETTING_BATCH) != 0) {
+            delegate.clearBatch();
+        }
+        if ((changed & SETTING_MAX_ROWS) != 0) {
+            delegate.setMaxRows(0);
+        }
+        if ((changed & SETTING_QUERY_TIMEOUT) != 0) {
+            delegate.setQueryTimeout(0);
+        }
+        if ((changed & SETTING_MAX_FIELD_SIZE) != 0) {
+            delegate.setMaxFieldSize(0);
+        }
+        if ((changed & SETTING_ESCAPE) != 0) {
+            delegate.setEscapeProcessing(true);
+        }
+        if ((changed & SETTING_FETCH_SIZE) != 0) {
+            delegate.setFetchSize(defaultFetchSize);
+        }
+        if ((changed & SETTING_FETCH_DIRECTION) != 0) {
+            delegate.setFetchDirection(defaultFetchDirection);
+        }
+        if ((changed & SETTING_POOLABLE) != 0) {
+            delegate.setPoolable(true);
+        }
+        delegate.clearWarnings();
+        changedSettings = 0;
+        return true;
+    }
+
     @Override
     public final String toString() {
         final String delegateToString = delegate.toString();
@@ -34,18 +108,16 @@ public abstract class ProxyStatement implements Statement {
 
     @Override
     public final void close() throws SQLException {
-        synchronized (this) {
-            if (isClosed) {
-                return;
-            }
-
-            isClosed = true;
+        if (!CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+            return;
         }
 
         connection.untrackStatement(delegate);
 
         try {
-            delegate.close();
+            if (cacheKey == null || !connection.returnToCache(cacheKey, this)) {
+                delegate.close();
+            }
         }
         catch (SQLException e) {
             throw connection.checkException(e);
@@ -57,95 +129,259 @@ public abstract class ProxyStatement implements Statement {
         return connection;
     }
 
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        changedSettings |= SETTING_BATCH;
+        delegate.addBatch(sql);
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        changedSettings |= SETTING_MAX_ROWS;
+        delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        changedSettings |= SETTING_MAX_ROWS;
+        delegate.setLargeMaxRows(max);
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        changedSettings |= SETTING_QUERY_TIMEOUT;
+        delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        changedSettings |= SETTING_MAX_FIELD_SIZE;
+        delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        changedSettings |= SETTING_ESCAPE;
+        delegate.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        // the default is up to the driver, remember it to restore
+        if (cacheKey != null && (changedSettings & SETTING_FETCH_SIZE) == 0) {
+            defaultFetchSize = delegate.getFetchSize();
+        }
+        changedSettings |= SETTING_FETCH_SIZE;
+        delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        if (cacheKey != null && (changedSettings & SETTING_FETCH_DIRECTION) == 0) {
+            defaultFetchDirection = delegate.getFetchDirection();
+        }
+        changedSettings |= SETTING_FETCH_DIRECTION;
+        delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        changedSettings |= SETTING_POOLABLE;
+        delegate.setPoolable(poolable);
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        changedSettings |= SETTING_NOT_REUSABLE;
+        delegate.setCursorName(name);
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        changedSettings |= SETTING_NOT_REUSABLE;
+        delegate.closeOnCompletion();
+    }
+
     @Override
     public boolean execute(String sql) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.execute(sql);
+        final long start = beginExecution();
+        try {
+            return delegate.execute(sql);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.execute(sql, autoGeneratedKeys);
+        final long start = beginExecution();
+        try {
+            return delegate.execute(sql, autoGeneratedKeys);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
         connection.markCommitStateDirty();
-        ResultSet resultSet = delegate.executeQuery(sql);
+        final long start = beginExecution();
+        final ResultSet resultSet;
+        try {
+            resultSet = delegate.executeQuery(sql);
+        }
+        finally {
+            endExecution(sql, start);
+        }
         return ProxyFactory.getProxyResultSet(connection, this, resultSet);
     }
 
     @Override
     public int executeUpdate(String sql) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeUpdate(sql);
+        final long start = beginExecution();
+        try {
+            return delegate.executeUpdate(sql);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public int[] executeBatch() throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeBatch();
+        final long start = beginExecution();
+        try {
+            return delegate.executeBatch();
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeUpdate(sql, autoGeneratedKeys);
+        final long start = beginExecution();
+        try {
+            return delegate.executeUpdate(sql, autoGeneratedKeys);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeUpdate(sql, columnIndexes);
+        final long start = beginExecution();
+        try {
+            return delegate.executeUpdate(sql, columnIndexes);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public int executeUpdate(String sql, String[] columnNames) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeUpdate(sql, columnNames);
+        final long start = beginExecution();
+        try {
+            return delegate.executeUpdate(sql, columnNames);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.execute(sql, columnIndexes);
+        final long start = beginExecution();
+        try {
+            return delegate.execute(sql, columnIndexes);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.execute(sql, columnNames);
+        final long start = beginExecution();
+        try {
+            return delegate.execute(sql, columnNames);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public long[] executeLargeBatch() throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeLargeBatch();
+        final long start = beginExecution();
+        try {
+            return delegate.executeLargeBatch();
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeLargeUpdate(sql);
+        final long start = beginExecution();
+        try {
+            return delegate.executeLargeUpdate(sql);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+        final long start = beginExecution();
+        try {
+            return delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeLargeUpdate(sql, columnIndexes);
+        final long start = beginExecution();
+        try {
+            return delegate.executeLargeUpdate(sql, columnIndexes);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
         connection.markCommitStateDirty();
-        return delegate.executeLargeUpdate(sql, columnNames);
+        final long start = beginExecution();
+        try {
+            return delegate.executeLargeUpdate(sql, columnNames);
+        }
+        finally {
+            endExecution(sql, start);
+        }
     }
 
     @Override
@@ -0,0 +1,111 @@
+package com.nhn.test.pool;
+
+import com.nhn.test.util.TimerWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+import static com.nhn.test.util.ClockSource.currentTime;
+import static com.nhn.test.util.ClockSource.elapsedMillis;
+
+/**
+ * Leak tracker owned by a {@link PoolEntry} and re-armed on every borrow, used when leakDetectionSampleRate is set.
+ * Arming records only the borrow time and thread (plus a stack for sampled borrows); nothing is scheduled per
+ * borrow.  {@link ProxyLeakTaskFactory} scans in-use entries periodically and the report (thread name, connection
+ * name, stack) is built only when the threshold has passed.
+ */
+final class SampledLeakTask extends ProxyLeakTask {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyLeakTask.class);
+
+    private static final int MAX_STACK_DEPTH = 32;
+
+    private final PoolEntry poolEntry;
+
+    private volatile long borrows;
+    private volatile long borrowedAt;
+    private volatile Thread borrower;
+    private volatile Exception borrowStack;
+    private volatile long reportedFor;
+
+    SampledLeakTask(final PoolEntry poolEntry) {
+        this.poolEntry = poolEntry;
+    }
+
+    void arm(final boolean captureStack) {
+        arm(Thread.currentThread(), captureStack ? new Exception("Apparent connection leak detected") : null);
+    }
+
+    /**
+     * Arm for a borrow whose thread and stack were captured before the connection was handed over, possibly on
+     * another thread.
+     */
+    void arm(final Thread borrower, final Exception borrowStack) {
+        borrows++; // only the thread handing over the entry arms
+        this.borrower = borrower;
+        this.borrowStack = borrowStack;
+        borrowedAt = currentTime();
+    }
+
+    @Override
+    void schedule(TimerWheel timerWheel, long leakDetectionThreshold) {
+        // armed by ProxyLeakTaskFactory, checked by its periodic scan
+    }
+
+    @Override
+    public void run() {
+        // reported from checkLeak()
+    }
+
+    @Override
+    void cancel() {
+        final long borrowed = borrowedAt;
+        borrowedAt = 0L;
+        borrower = null;
+        borrowStack = null;
+
+        if (borrowed != 0L && reportedFor == borrowed) {
+            LOGGER.info("Previously reported leaked connection {} was returned to the pool (unleaked)", poolEntry.connection);
+        }
+    }
+
+    @Override
+    long borrowToken() {
+        return borrows;
+    }
+
+    @Override
+    void cancel(final long borrowToken) {
+        if (borrowToken == borrows) {
+            cancel();
+        }
+    }
+
+    void checkLeak(final long leakDetectionThreshold, final long now) {
+        final long borrowed = borrowedAt;
+        if (borrowed == 0L || reportedFor == borrowed || elapsedMillis(borrowed, now) < leakDetectionThreshold) {
+            return;
+        }
+
+        final Thread thread = borrower;
+        final Exception stack = borrowStack;
+        if (borrowedAt != borrowed) {
+            return; // returned while we were looking
+        }
+        reportedFor = borrowed;
+
+        final String threadName = thread != null ? thread.getName() : "<unknown>";
+        if (stack != null) {
+            final StackTraceElement[] frames = stack.getStackTrace();
+            int from = 0;
+            while (from < frames.length && isPoolFrame(frames[from].getClassName())) {
+                from++;
+            }
+            stack.setStackTrace(Arrays.copyOfRange(frames, from, Math.min(frames.length, from + MAX_STACK_DEPTH)));
+            LOGGER.warn("Connection leak detection triggered for {} on thread {}, stack trace follows", poolEntry.connection, threadName, stack);
+        }
+        else {
+            LOGGER.warn("Connection leak detection triggered for {} on thread {} (borrow was not sampled for a stack trace)", poolEntry.connection, threadName);
+        }
+    }
+}
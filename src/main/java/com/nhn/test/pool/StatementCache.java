@@ -0,0 +1,163 @@
+package com.nhn.test.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache of idle physical {@link PreparedStatement}s belonging to one {@link PoolEntry}.  A statement is in the
+ * cache only while nobody uses it: {@link #take} removes it, a logical close {@link #offer}s it back.
+ */
+final class StatementCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementCache.class);
+
+    static final int DEFAULT_HOLDABILITY = -1;
+
+    private final int maxSize;
+    private final Counters counters;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+    // set by removeEldestEntry under the lock, closed by offer() once the lock is released
+    private PreparedStatement evicted;
+
+    StatementCache(final int maxSize, final Counters counters) {
+        this.maxSize = maxSize;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    counters.evictions.increment();
+                    evicted = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return an idle cached statement for the key, or null on a miss
+     */
+    PreparedStatement take(final Key key) {
+        final PreparedStatement statement;
+        lock.lock();
+        try {
+            statement = statements.remove(key);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        (statement != null ? counters.hits : counters.misses).increment();
+        return statement;
+    }
+
+    /**
+     * Return a statement that is no longer in use.
+     *
+     * @return false if the statement was not cached and should be closed by the caller
+     */
+    boolean offer(final Key key, final PreparedStatement statement) {
+        final boolean cached;
+        final PreparedStatement eldest;
+        lock.lock();
+        try {
+            // an identical statement was prepared and returned while this one was in use, keep the one already cached
+            cached = statements.putIfAbsent(key, statement) == null;
+            eldest = evicted;
+            evicted = null;
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // a slow driver close() must not hold up other borrowers of this connection's cache
+        if (eldest != null) {
+            quietlyClose(eldest);
+        }
+        return cached;
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return statements.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget all cached statements when the physical connection is closed; closing the connection releases them.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            statements.clear();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static void quietlyClose(final PreparedStatement statement) {
+        try {
+            statement.close();
+        }
+        catch (SQLException e) {
+            LOGGER.debug("Failed to close evicted cached statement {}", statement, e);
+        }
+    }
+
+    static final class Key {
+        final String sql;
+        final int resultSetType;
+        final int concurrency;
+        final int holdability;
+        private final int hashCode;
+
+        Key(final String sql, final int resultSetType, final int concurrency, final int holdability) {
+            this.sql = sql;
+            this.resultSetType = resultSetType;
+            this.concurrency = concurrency;
+            this.holdability = holdability;
+            this.hashCode = ((sql.hashCode() * 31 + resultSetType) * 31 + concurrency) * 31 + holdability;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return hashCode == other.hashCode && resultSetType == other.resultSetType && concurrency == other.concurrency
+                    && holdability == other.holdability && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Pool-wide counters shared by the caches of all entries, so they survive connection retirement.
+     */
+    static final class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+    }
+}
@@ -0,0 +1,214 @@
+package com.nhn.test.pool;
+
+import com.nhn.test.util.SqlFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Execution times of the statements run on a pool's connections, aggregated by SQL fingerprint (see
+ * {@link SqlFingerprint}), and the slow query log.  Memory is bounded: at most {@code
+ * com.nhn.test.statementStatistics.maxFingerprints} (default 1000) fingerprints are tracked, later ones are counted
+ * under {@link #OTHER}, and each keeps a count, total, max and a power-of-two histogram of a few hundred bytes.
+ * <p>
+ * Fingerprints are cached by the identity of the SQL string, so the SQL of prepared statements and of string
+ * constants is normalized once rather than on every execution.
+ */
+public final class StatementStatistics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementStatistics.class);
+
+    public static final String OTHER = "(other)";
+    public static final String BATCH = "(batch)";
+
+    private static final int MAX_FINGERPRINTS = Integer.getInteger("com.nhn.test.statementStatistics.maxFingerprints", 1000);
+    private static final int CACHE_SIZE = 1024;
+
+    private final String poolName;
+    private final boolean isCollecting;
+    private final long slowQueryThresholdNanos;
+
+    private final ConcurrentHashMap<String, QueryStats> stats = new ConcurrentHashMap<>();
+    private final AtomicInteger fingerprints = new AtomicInteger();
+    private final AtomicReferenceArray<Fingerprinted> fingerprintCache = new AtomicReferenceArray<>(CACHE_SIZE);
+
+    StatementStatistics(final String poolName, final boolean isCollecting, final long slowQueryThresholdMs) {
+        this.poolName = poolName;
+        this.isCollecting = isCollecting;
+        this.slowQueryThresholdNanos = MILLISECONDS.toNanos(slowQueryThresholdMs);
+    }
+
+    /**
+     * @return the statistics of every fingerprint with at least one execution, by descending total time
+     */
+    public List<QueryStats> getQueryStats() {
+        final List<QueryStats> list = new ArrayList<>(stats.values());
+        list.sort(Comparator.comparingLong(QueryStats::getTotalNanos).reversed());
+        return list;
+    }
+
+    /**
+     * @return the statistics of the fingerprint, or null if it has not been executed
+     */
+    public QueryStats getQueryStats(final String fingerprint) {
+        return stats.get(fingerprint);
+    }
+
+    /**
+     * Forget all statistics collected so far.
+     */
+    public void reset() {
+        stats.clear();
+        fingerprints.set(0);
+    }
+
+    void record(final String sql, final long elapsedNanos) {
+        final String fingerprint = sql != null ? fingerprint(sql) : BATCH;
+        if (isCollecting) {
+            statsFor(fingerprint).record(elapsedNanos);
+        }
+
+        if (slowQueryThresholdNanos > 0 && elapsedNanos >= slowQueryThresholdNanos) {
+            LOGGER.warn("{} - Slow query took {}ms: {}", poolName, NANOSECONDS.toMillis(elapsedNanos), fingerprint);
+        }
+    }
+
+    String fingerprint(final String sql) {
+        final int slot = System.identityHashCode(sql) & (CACHE_SIZE - 1);
+        final Fingerprinted cached = fingerprintCache.get(slot);
+        if (cached != null && cached.sql == sql) {
+            return cached.fingerprint;
+        }
+
+        final String fingerprint = SqlFingerprint.of(sql);
+        fingerprintCache.set(slot, new Fingerprinted(sql, fingerprint));
+        return fingerprint;
+    }
+
+    private QueryStats statsFor(final String fingerprint) {
+        final QueryStats existing = stats.get(fingerprint);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (fingerprints.get() >= MAX_FINGERPRINTS) {
+            return stats.computeIfAbsent(OTHER, QueryStats::new);
+        }
+
+        return stats.computeIfAbsent(fingerprint, key -> {
+            fingerprints.incrementAndGet();
+            return new QueryStats(key);
+        });
+    }
+
+    private static final class Fingerprinted {
+        final String sql;
+        final String fingerprint;
+
+        Fingerprinted(final String sql, final String fingerprint) {
+            this.sql = sql;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Execution statistics of one SQL fingerprint.  The percentiles come from power-of-two microsecond buckets, so
+     * they are upper bounds within a factor of two.
+     */
+    public static final class QueryStats {
+        private static final int BUCKETS = 40;
+
+        private final String fingerprint;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        QueryStats(final String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        void record(final long elapsedNanos) {
+            final long nanos = Math.max(0L, elapsedNanos);
+            count.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(bucket(nanos));
+
+            long current;
+            while (nanos > (current = maxNanos.get()) && !maxNanos.compareAndSet(current, nanos)) {
+                // retry
+            }
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getMeanNanos() {
+            final long n = count.sum();
+            return n == 0L ? 0L : totalNanos.sum() / n;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound of the bucket holding the execution time at the percentile, or 0 if there are none
+         */
+        public long getPercentileNanos(final double percentile) {
+            final long[] counts = new long[BUCKETS];
+            long n = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if (n == 0L) {
+                return 0L;
+            }
+
+            final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * n));
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(1000L << (i + 1), maxNanos.get());
+                }
+            }
+
+            return maxNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            return fingerprint + " (count=" + getCount() + ", mean=" + NANOSECONDS.toMicros(getMeanNanos()) + "us, p99="
+                    + NANOSECONDS.toMicros(getPercentileNanos(99)) + "us, max=" + NANOSECONDS.toMicros(getMaxNanos()) + "us)";
+        }
+
+        // bucket i holds times below 2^(i+1) microseconds
+        private static int bucket(final long nanos) {
+            final long micros = nanos / 1000L;
+            return micros == 0L ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+        }
+    }
+}
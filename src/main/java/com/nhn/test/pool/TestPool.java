@@ -7,6 +7,7 @@ import com.nhn.test.metrics.PoolStats;
 import com.nhn.test.util.ConcurrentBag;
 import com.nhn.test.util.ConcurrentBag.IBagStateListener;
 import com.nhn.test.util.SuspendResumeLock;
+import com.nhn.test.util.TimerWheel;
 import com.nhn.test.util.UtilityElf.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,8 +17,13 @@ import java.sql.SQLException;
 import java.sql.SQLTransientConnectionException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
 
 import static com.nhn.test.util.ClockSource.*;
 import static com.nhn.test.util.ConcurrentBag.IConcurrentBagEntry.STATE_IN_USE;
@@ -38,23 +44,61 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
 
     private final long aliveBypassWindowMs = Long.getLong("com.nhn.test.aliveBypassWindowMs", MILLISECONDS.toMillis(500));
     private final long housekeepingPeriodMs = Long.getLong("com.nhn.test.housekeeping.periodMs", SECONDS.toMillis(30));
+    private final long timerTickMs = Long.getLong("com.nhn.test.timerWheel.tickMs", 100L);
+    private final long adaptiveSizingPeriodMs = Long.getLong("com.nhn.test.adaptiveSizing.periodMs", SECONDS.toMillis(1));
 
     private static final String EVICTED_CONNECTION_MESSAGE = "(connection was evicted)";
     private static final String DEAD_CONNECTION_MESSAGE = "(connection is dead)";
 
+    // the number of sites, by total hold time, reported on the MXBean
+    private static final int HOLD_TIME_HOTSPOTS = 10;
+
     private final PoolEntryCreator poolEntryCreator = new PoolEntryCreator(null /*logging prefix*/);
     private final PoolEntryCreator postFillPoolEntryCreator = new PoolEntryCreator("After adding ");
     private final Collection<Runnable> addConnectionQueueReadOnlyView;
     private final ThreadPoolExecutor addConnectionExecutor;
     private final ThreadPoolExecutor closeConnectionExecutor;
+    private final ThreadPoolExecutor asyncValidationExecutor;
+    private final ThreadPoolExecutor backgroundValidationExecutor;
+    private final long backgroundValidationPeriodMs;
+
+    // j.u.c locks rather than monitors on paths reachable from borrowing threads, so virtual threads do not pin
+    private final ReentrantLock fillPoolLock = new ReentrantLock();
+    private final ReentrantLock creationLock = new ReentrantLock();
+
+    // connections being created by the adder threads, counted so parallel creators do not overshoot
+    private final AtomicInteger pendingCreations = new AtomicInteger();
+
+    private final LongAdder connectionTimeouts = new LongAdder();
+    // closed connections by closure reason; the reasons are a small fixed set of constants
+    private final ConcurrentHashMap<String, LongAdder> closedConnections = new ConcurrentHashMap<>();
+
+    // connections bound to each tenant by getTenantConnection(), idle or in use
+    private final ConcurrentHashMap<String, AtomicInteger> tenantConnections = new ConcurrentHashMap<>();
+    // counted down per connection added while pool construction waits for minimumIdle
+    private volatile CountDownLatch fillLatch;
 
     private final ConcurrentBag<PoolEntry> connectionBag;
+    final StatementCache.Counters statementCacheCounters = new StatementCache.Counters();
 
     private final ProxyLeakTaskFactory leakTaskFactory;
     private final SuspendResumeLock suspendResumeLock;
 
     private final ScheduledExecutorService houseKeepingExecutorService;
     private ScheduledFuture<?> houseKeeperTask;
+    private ScheduledFuture<?> backgroundValidatorTask;
+
+    // null unless maximumWaitingRequests or loadShedding is set
+    private final AdmissionController admissionController;
+
+    // null unless adaptivePoolSizing is enabled
+    private final PoolSizeController sizeController;
+    private ScheduledFuture<?> sizeControllerTask;
+
+    // maxLifetime, leak-detection and async borrow timeouts; scheduling and cancelling are O(1) and never touch the
+    // executor's queue
+    private final TimerWheel timerWheel;
+    private ScheduledFuture<?> timerWheelTask;
 
 
     public TestPool(final TestConfig config) {
@@ -62,16 +106,25 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
 
         this.connectionBag = new ConcurrentBag<>(this);
         this.suspendResumeLock = config.isAllowPoolSuspension() ? new SuspendResumeLock() : SuspendResumeLock.FAUX_LOCK;
+        this.metricsTracker = new NopMetricsTrackerDelegate();
+
+        this.sizeController = config.isAdaptivePoolSizing() && config.getMinimumIdle() < config.getMaximumPoolSize()
+                ? new PoolSizeController(config.getMaximumPoolSize(), Integer.getInteger("com.nhn.test.adaptiveSizing.maxStep", 2),
+                                         Long.getLong("com.nhn.test.adaptiveSizing.targetWaitMs", 5L))
+                : null;
+
+        this.admissionController = config.getMaximumWaitingRequests() > 0 || config.isLoadShedding()
+                ? new AdmissionController(config.getMaximumWaitingRequests(), config.isLoadShedding())
+                : null;
 
         this.houseKeepingExecutorService = initializeHouseKeepingExecutorService();
+        this.timerWheel = new TimerWheel(timerTickMs, MILLISECONDS, 512);
+        this.timerWheelTask = houseKeepingExecutorService.scheduleAtFixedRate(timerWheel::tick, timerTickMs, timerTickMs, MILLISECONDS);
 
         checkFailFast();
 
-//        if (config.getMetricsTrackerFactory() != null) {
-//            setMetricsTrackerFactory(config.getMetricsTrackerFactory());
-//        } else {
-//            setMetricRegistry(config.getMetricRegistry());
-//        }
+        setMetricsTrackerFactory(config.getMetricsTrackerFactory());
+//        setMetricRegistry(config.getMetricRegistry());
 //
 //        setHealthCheckRegistry(config.getHealthCheckRegistry());
 
@@ -84,22 +137,42 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         this.addConnectionQueueReadOnlyView = unmodifiableCollection(addConnectionQueue);
         this.addConnectionExecutor = createThreadPoolExecutor(addConnectionQueue, poolName + " connection adder", threadFactory, new ThreadPoolExecutor.DiscardOldestPolicy());
         this.closeConnectionExecutor = createThreadPoolExecutor(maxPoolSize, poolName + " connection closer", threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.asyncValidationExecutor = createThreadPoolExecutor(maxPoolSize, poolName + " async validator", threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.backgroundValidationPeriodMs = config.getBackgroundValidationPeriod();
+        if (backgroundValidationPeriodMs > 0) {
+            // nothing is reserved while queued, so a full queue can simply drop the surplus until the next round
+            final int concurrency = config.getBackgroundValidationConcurrency();
+            this.backgroundValidationExecutor = createThreadPoolExecutor(maxPoolSize, poolName + " background validator", threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+            backgroundValidationExecutor.setMaximumPoolSize(concurrency);
+            backgroundValidationExecutor.setCorePoolSize(concurrency);
+        }
+        else {
+            this.backgroundValidationExecutor = null;
+        }
 
-        this.leakTaskFactory = new ProxyLeakTaskFactory(config.getLeakDetectionThreshold(), houseKeepingExecutorService);
-
-        this.houseKeeperTask = houseKeepingExecutorService.scheduleWithFixedDelay(new HouseKeeper(), 100L, housekeepingPeriodMs, MILLISECONDS);
+        this.leakTaskFactory = new ProxyLeakTaskFactory(config.getLeakDetectionThreshold(), timerWheel, config.getLeakDetectionSampleRate(),
+                () -> connectionBag.values(STATE_IN_USE));
 
-        if (Boolean.getBoolean("com.zaxxer.hikari.blockUntilFilled") && config.getInitializationFailTimeout() > 1) {
-            addConnectionExecutor.setCorePoolSize(Math.min(16, Runtime.getRuntime().availableProcessors()));
-            addConnectionExecutor.setMaximumPoolSize(Math.min(16, Runtime.getRuntime().availableProcessors()));
+        final int creationConcurrency = config.getConnectionCreationConcurrency();
+        setAddConnectionConcurrency(creationConcurrency);
 
-            final long startTime = currentTime();
-            while (elapsedMillis(startTime) < config.getInitializationFailTimeout() && getTotalConnections() < config.getMinimumIdle()) {
-                quietlySleep(MILLISECONDS.toMillis(100));
+        final boolean legacyBlockUntilFilled = Boolean.getBoolean("com.zaxxer.hikari.blockUntilFilled") && config.getInitializationFailTimeout() > 1;
+        if (config.isBlockUntilFilled() || legacyBlockUntilFilled) {
+            if (legacyBlockUntilFilled) {
+                setAddConnectionConcurrency(Math.max(creationConcurrency, Math.min(16, Runtime.getRuntime().availableProcessors())));
             }
 
-            addConnectionExecutor.setCorePoolSize(1);
-            addConnectionExecutor.setMaximumPoolSize(1);
+            awaitInitialFill();
+            setAddConnectionConcurrency(creationConcurrency);
+        }
+
+        this.houseKeeperTask = houseKeepingExecutorService.scheduleWithFixedDelay(new HouseKeeper(), 100L, housekeepingPeriodMs, MILLISECONDS);
+        if (sizeController != null) {
+            this.sizeControllerTask = houseKeepingExecutorService.scheduleWithFixedDelay(this::adjustPoolSize, adaptiveSizingPeriodMs, adaptiveSizingPeriodMs, MILLISECONDS);
+        }
+        if (backgroundValidationExecutor != null) {
+            this.backgroundValidatorTask = houseKeepingExecutorService.scheduleWithFixedDelay(new BackgroundValidator(), backgroundValidationPeriodMs, backgroundValidationPeriodMs, MILLISECONDS);
         }
     }
 
@@ -108,29 +181,113 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
     }
 
     public Connection getConnection(final long hardTimeout) throws SQLException {
+        return getConnection(hardTimeout, ConcurrentBag.PRIORITY_NORMAL);
+    }
+
+    /**
+     * Get a connection, waiting up to the timeout.  When the pool is exhausted, returned connections go to the waiting
+     * request with the highest priority, then the one closest to its deadline.
+     *
+     * @param hardTimeout the maximum time to wait for a connection, in milliseconds
+     * @param priority the priority of this request, higher is served first; 0 is the default priority
+     * @return a connection
+     */
+    public Connection getConnection(final long hardTimeout, final int priority) throws SQLException {
+        return getConnection(hardTimeout, priority, null, null);
+    }
+
+    public Connection getTenantConnection(final String tenantKey) throws SQLException {
+        return getTenantConnection(tenantKey, connectionTimeout);
+    }
+
+    /**
+     * Get a connection whose schema is set to the tenant key.  An idle connection already bound to the tenant is
+     * preferred; otherwise an unbound idle connection, or one of a tenant holding more than tenantMinimumConnections,
+     * is switched over with {@code setSchema()}, as long as the tenant stays within tenantMaximumConnections.  A
+     * tenant at its maximum waits for one of its own connections to be returned.  All tenants share maximumPoolSize;
+     * a tenant's connection handed to a plain {@link #getConnection()} has its earlier schema restored and is unbound.
+     *
+     * @param tenantKey the tenant, used as the schema name
+     * @param hardTimeout the maximum time to wait for a connection, in milliseconds
+     * @return a connection set to the tenant's schema
+     */
+    public Connection getTenantConnection(final String tenantKey, final long hardTimeout) throws SQLException {
+        return getConnection(hardTimeout, ConcurrentBag.PRIORITY_NORMAL, Objects.requireNonNull(tenantKey, "tenantKey"), null);
+    }
+
+    public Connection getTaggedConnection(final String tag) throws SQLException {
+        return getTaggedConnection(tag, connectionTimeout);
+    }
+
+    /**
+     * Get a connection whose hold time is attributed to the tag rather than to a sampled call site; see {@link
+     * #getHoldTimeStatistics()}.
+     *
+     * @param tag the name hold time is aggregated under, e.g. the name of a code path
+     * @param hardTimeout the maximum time to wait for a connection, in milliseconds
+     * @return a connection
+     */
+    public Connection getTaggedConnection(final String tag, final long hardTimeout) throws SQLException {
+        return getConnection(hardTimeout, ConcurrentBag.PRIORITY_NORMAL, null, Objects.requireNonNull(tag, "tag"));
+    }
+
+    private Connection getConnection(final long hardTimeout, final int priority, final String tenantKey, final String tag) throws SQLException {
+        final String holdSite = holdTimeStatistics.borrowSite(tag);
         suspendResumeLock.acquire();
         final long startTime = currentTime();
+        boolean validated = false;
 
         try {
+            admit(hardTimeout);
+
             long timeout = hardTimeout;
             do {
-                PoolEntry poolEntry = connectionBag.borrow(timeout, MILLISECONDS);
+                final boolean circuitOpen = connectionBreaker.isOpen();
+                PoolEntry poolEntry = tenantKey != null ? borrowIdleForTenant(tenantKey) : null;
                 if (poolEntry == null) {
-                    break; // We timed out... break and throw exception
+                    final long wait = circuitOpen ? 0L : timeout;
+                    poolEntry = tenantKey != null
+                            ? connectionBag.borrow(wait, MILLISECONDS, priority, entry -> isTenantEligible(tenantKey, entry))
+                            : connectionBag.borrow(wait, MILLISECONDS, priority);
+                }
+                if (poolEntry == null) {
+                    // waiters are released when the breaker opens, see onCircuitOpened()
+                    if (circuitOpen || connectionBreaker.isOpen()) {
+                        throw createCircuitOpenException(startTime);
+                    }
+                    timeout = hardTimeout - elapsedMillis(startTime);
+                    continue;
                 }
 
                 final long now = currentTime();
-                if (poolEntry.isMarkedEvicted() || (elapsedMillis(poolEntry.lastAccessed, now) > aliveBypassWindowMs && !isConnectionAlive(poolEntry.connection))) {
+                final boolean validate = !poolEntry.isMarkedEvicted() && !isRecentlyValidated(poolEntry, now);
+                validated |= validate;
+                if (poolEntry.isMarkedEvicted() || (validate && !isConnectionAlive(poolEntry))) {
                     closeConnection(poolEntry, poolEntry.isMarkedEvicted() ? EVICTED_CONNECTION_MESSAGE : DEAD_CONNECTION_MESSAGE);
                     timeout = hardTimeout - elapsedMillis(startTime);
                 }
+                else if (tenantKey != null && !tenantKey.equals(poolEntry.tenantKey) && !switchTenant(poolEntry, tenantKey)) {
+                    timeout = hardTimeout - elapsedMillis(startTime);
+                }
+                else if (tenantKey == null && poolEntry.tenantKey != null && !releaseTenant(poolEntry)) {
+                    timeout = hardTimeout - elapsedMillis(startTime);
+                }
                 else {
                     metricsTracker.recordBorrowStats(poolEntry, startTime);
-                    return poolEntry.createProxyConnection(leakTaskFactory.schedule(poolEntry), now);
+                    if (sizeController != null) {
+                        sizeController.recordBorrow(poolEntry, startTime);
+                    }
+                    if (PoolEvents.ENABLED) {
+                        PoolEvents.borrowed(this, elapsedNanos(startTime), validated, true);
+                    }
+                    return poolEntry.createProxyConnection(leakTaskFactory.schedule(poolEntry), now, holdSite);
                 }
             } while (timeout > 0L);
 
             metricsTracker.recordBorrowTimeoutStats(startTime);
+            if (PoolEvents.ENABLED) {
+                PoolEvents.borrowed(this, elapsedNanos(startTime), validated, false);
+            }
             throw createTimeoutException(startTime);
         }
         catch (InterruptedException e) {
@@ -142,6 +299,76 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         }
     }
 
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return getConnectionAsync(connectionTimeout);
+    }
+
+    /**
+     * Non-blocking variant of {@link #getConnection(long)}.  No thread is parked while waiting: the request is queued in
+     * the bag and completed by whichever thread returns or adds a connection, so dependent stages run on that thread
+     * unless an {@code *Async} stage is used.  The timeout is enforced by the pool's timer wheel, to within one tick
+     * ({@code com.nhn.test.timerWheel.tickMs}), and alive checks are run on a dedicated executor.  Cancelling the
+     * returned future withdraws the request.  As with {@link #getConnection()}, a request made while the pool is
+     * suspended waits for it to be resumed, its timeout starting then, and requests in flight hold up
+     * {@link #suspendPool()}.
+     *
+     * @param hardTimeout the maximum time to wait for a connection, in milliseconds
+     * @return a future that completes with a connection, or exceptionally with an {@link SQLException}
+     */
+    public CompletableFuture<Connection> getConnectionAsync(final long hardTimeout) {
+        int cell = -1;
+        try {
+            if (poolState == POOL_SHUTDOWN) {
+                throw new SQLTransientConnectionException(poolName + " - Pool is shutdown");
+            }
+
+            cell = suspendResumeLock.tryAcquire();
+            if (cell < 0) {
+                return afterResume(hardTimeout);
+            }
+
+            if (connectionBreaker.isOpen() && getIdleConnections() == 0) {
+                throw createCircuitOpenException(currentTime());
+            }
+            admit(hardTimeout);
+        }
+        catch (SQLException e) {
+            if (cell >= 0) {
+                suspendResumeLock.release(cell);
+            }
+            final CompletableFuture<Connection> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return new AsyncConnectionRequest(hardTimeout, cell).start();
+    }
+
+    // queue an async request made while the pool is suspended; a request cancelled meanwhile is never started
+    private CompletableFuture<Connection> afterResume(final long hardTimeout) {
+        final CompletableFuture<Connection> result = new CompletableFuture<>();
+        suspendResumeLock.whenResumed().thenRun(() -> {
+            if (result.isDone()) {
+                return;
+            }
+
+            getConnectionAsync(hardTimeout).whenComplete((connection, t) -> {
+                if (t != null) {
+                    result.completeExceptionally(t);
+                }
+                else if (!result.complete(connection)) {
+                    try {
+                        connection.close(); // cancelled meanwhile, return it
+                    }
+                    catch (SQLException e) {
+                        LOGGER.debug("{} - Failed to return connection after abandoned async acquisition", poolName, e);
+                    }
+                }
+            });
+        });
+        return result;
+    }
+
     public synchronized void shutdown() throws InterruptedException {
         try {
             poolState = POOL_SHUTDOWN;
@@ -157,6 +384,21 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
                 houseKeeperTask = null;
             }
 
+            if (sizeControllerTask != null) {
+                sizeControllerTask.cancel(false);
+                sizeControllerTask = null;
+            }
+
+            if (backgroundValidatorTask != null) {
+                backgroundValidatorTask.cancel(false);
+                backgroundValidatorTask = null;
+            }
+
+            if (timerWheelTask != null) {
+                timerWheelTask.cancel(false);
+                timerWheelTask = null;
+            }
+
             softEvictConnections();
 
             addConnectionExecutor.shutdown();
@@ -180,6 +422,14 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
                 assassinExecutor.awaitTermination(10L, SECONDS);
             }
 
+            asyncValidationExecutor.shutdown();
+            asyncValidationExecutor.awaitTermination(10L, SECONDS);
+
+            if (backgroundValidationExecutor != null) {
+                backgroundValidationExecutor.shutdown();
+                backgroundValidationExecutor.awaitTermination(10L, SECONDS);
+            }
+
             shutdownNetworkTimeoutExecutor();
             closeConnectionExecutor.shutdown();
             closeConnectionExecutor.awaitTermination(10L, SECONDS);
@@ -214,16 +464,16 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
 //            setMetricsTrackerFactory(null);
 //        }
 //    }
-//
-//    public void setMetricsTrackerFactory(MetricsTrackerFactory metricsTrackerFactory) {
-//        if (metricsTrackerFactory != null) {
-//            this.metricsTracker = new MetricsTrackerDelegate(metricsTrackerFactory.create(config.getPoolName(), getPoolStats()));
-//        }
-//        else {
-//            this.metricsTracker = new NopMetricsTrackerDelegate();
-//        }
-//    }
-//
+
+    public void setMetricsTrackerFactory(MetricsTrackerFactory metricsTrackerFactory) {
+        if (metricsTrackerFactory != null) {
+            this.metricsTracker = new MetricsTrackerDelegate(metricsTrackerFactory.create(config.getPoolName(), getPoolStats()));
+        }
+        else {
+            this.metricsTracker = new NopMetricsTrackerDelegate();
+        }
+    }
+
 //    public void setHealthCheckRegistry(Object healthCheckRegistry) {
 //        if (healthCheckRegistry != null) {
 //            CodahaleHealthChecker.registerHealthChecks(this, config, (HealthCheckRegistry) healthCheckRegistry);
@@ -269,6 +519,75 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         return connectionBag.getWaitingThreadCount();
     }
 
+    @Override
+    public int getEffectiveMaximumPoolSize() {
+        return sizeController != null ? Math.min(sizeController.getEffectiveSize(), config.getMaximumPoolSize()) : config.getMaximumPoolSize();
+    }
+
+    @Override
+    public String getLastPoolSizeDecision() {
+        return sizeController != null ? sizeController.getLastDecision() : "disabled";
+    }
+
+    @Override
+    public long getRejectedConnectionRequests() {
+        return admissionController != null ? admissionController.getRejectedCount() : 0L;
+    }
+
+    @Override
+    public long getConnectionTimeouts() {
+        return connectionTimeouts.sum();
+    }
+
+    @Override
+    public long getConnectionCreationFailures() {
+        return connectionCreationFailures.sum();
+    }
+
+    /**
+     * @return the pool's statement execution statistics, or null if neither statementStatistics nor
+     *         slowQueryThreshold is configured
+     */
+    public StatementStatistics getStatementStatistics() {
+        return statementStatistics;
+    }
+
+    public HoldTimeStatistics getHoldTimeStatistics() {
+        return holdTimeStatistics;
+    }
+
+    @Override
+    public String[] getHoldTimeHotspots() {
+        final List<HoldTimeStatistics.SiteStats> sites = holdTimeStatistics.getSiteStats();
+        final String[] hotspots = new String[Math.min(sites.size(), HOLD_TIME_HOTSPOTS)];
+        for (int i = 0; i < hotspots.length; i++) {
+            hotspots[i] = sites.get(i).toString();
+        }
+        return hotspots;
+    }
+
+    /**
+     * Report the number of connections closed so far for each closure reason, without allocating.
+     */
+    public void forEachClosedConnectionCount(final ObjLongConsumer<String> consumer) {
+        closedConnections.forEach((reason, count) -> consumer.accept(reason, count.sum()));
+    }
+
+    @Override
+    public long getPreparedStatementCacheHits() {
+        return statementCacheCounters.hits.sum();
+    }
+
+    @Override
+    public long getPreparedStatementCacheMisses() {
+        return statementCacheCounters.misses.sum();
+    }
+
+    @Override
+    public long getPreparedStatementCacheEvictions() {
+        return statementCacheCounters.evictions.sum();
+    }
+
     @Override
     public void softEvictConnections() {
         connectionBag.values().forEach(poolEntry -> softEvictConnection(poolEntry, "(connection evicted)", false /* not owner */));
@@ -306,14 +625,35 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         }
     }
 
+    @Override
+    void onCircuitOpened() {
+        // fail waiting borrowers now rather than when they time out; connections returned meanwhile stay idle
+        connectionBag.releaseWaiters();
+    }
+
     @Override
     void recycle(final PoolEntry poolEntry) {
-        //metricsTracker.recordConnectionUsage(poolEntry);
+        metricsTracker.recordConnectionUsage(poolEntry);
+        if (sizeController != null) {
+            sizeController.recordRelease(poolEntry);
+        }
+        if (admissionController != null) {
+            admissionController.recordRelease();
+        }
         connectionBag.requite(poolEntry);
     }
 
     void closeConnection(final PoolEntry poolEntry, final String closureReason) {
         if (connectionBag.remove(poolEntry)) {
+            untag(poolEntry);
+            LongAdder closed = closedConnections.get(closureReason);
+            if (closed == null) {
+                closed = closedConnections.computeIfAbsent(closureReason, reason -> new LongAdder());
+            }
+            closed.increment();
+            if (PoolEvents.ENABLED) {
+                PoolEvents.closed(this, closureReason);
+            }
             final Connection connection = poolEntry.close();
             closeConnectionExecutor.execute(() -> {
                 quietlyCloseConnection(connection, closureReason);
@@ -324,8 +664,26 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         }
     }
 
-    @SuppressWarnings("unused")
-    int[] getPoolStateCounts() {
+    void untag(final PoolEntry poolEntry) {
+        final String key = poolEntry.tenantKey;
+        if (key != null) {
+            poolEntry.tenantKey = null;
+            tenantCounter(key).decrementAndGet();
+            // the tenant may take more now, idle entries its waiters passed over may be theirs
+            connectionBag.offerIdle();
+        }
+    }
+
+    int getTenantConnections(final String tenantKey) {
+        final AtomicInteger counter = tenantConnections.get(tenantKey);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * @return the bag entry counts by state: not in use, in use, removed, reserved, followed by the total and the
+     *         number of waiting threads
+     */
+    public int[] getPoolStateCounts() {
         return connectionBag.getStateCounts();
     }
 
@@ -342,7 +700,7 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
                 // variance up to 2.5% of the maxlifetime
                 final long variance = maxLifetime > 10_000 ? ThreadLocalRandom.current().nextLong( maxLifetime / 40 ) : 0;
                 final long lifetime = maxLifetime - variance;
-                poolEntry.setFutureEol(houseKeepingExecutorService.schedule(
+                poolEntry.setFutureEol(timerWheel.schedule(
                         () -> {
                             if (softEvictConnection(poolEntry, "(connection has passed maxLifetime)", false /* not owner */)) {
                                 addBagItem(connectionBag.getWaitingThreadCount());
@@ -353,6 +711,9 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
 
             return poolEntry;
         }
+        catch (CircuitOpenException e) {
+            // not attempted; lastConnectionFailure still holds the failure that opened the breaker
+        }
         catch (ConnectionSetupException e) {
             if (poolState == POOL_NORMAL) { // we check POOL_NORMAL to avoid a flood of messages if shutdown() is running concurrently
                 LOGGER.error("{} - Error thrown while acquiring connection from data source", poolName, e.getCause());
@@ -368,15 +729,51 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         return null;
     }
 
-    private synchronized void fillPool() {
-        final int connectionsToAdd = Math.min(config.getMaximumPoolSize() - getTotalConnections(), config.getMinimumIdle() - getIdleConnections())
-                - addConnectionQueueReadOnlyView.size();
-        if (connectionsToAdd <= 0) {
-            LOGGER.debug("{} - Fill pool skipped, pool is at sufficient level.", poolName);
+    private void fillPool() {
+        fillPoolLock.lock();
+        try {
+            final int connectionsToAdd = Math.min(getEffectiveMaximumPoolSize() - getTotalConnections(), config.getMinimumIdle() - getIdleConnections())
+                    - addConnectionQueueReadOnlyView.size();
+            if (connectionsToAdd <= 0) {
+                LOGGER.debug("{} - Fill pool skipped, pool is at sufficient level.", poolName);
+            }
+
+            for (int i = 0; i < connectionsToAdd; i++) {
+                addConnectionExecutor.submit((i < connectionsToAdd - 1) ? poolEntryCreator : postFillPoolEntryCreator);
+            }
+        }
+        finally {
+            fillPoolLock.unlock();
         }
+    }
 
-        for (int i = 0; i < connectionsToAdd; i++) {
-            addConnectionExecutor.submit((i < connectionsToAdd - 1) ? poolEntryCreator : postFillPoolEntryCreator);
+    private void awaitInitialFill() {
+        final long timeout = config.getInitializationFailTimeout() > 1 ? config.getInitializationFailTimeout() : connectionTimeout;
+        final CountDownLatch latch = new CountDownLatch(Math.max(0, config.getMinimumIdle() - getTotalConnections()));
+        fillLatch = latch;
+        try {
+            fillPool();
+            if (!latch.await(timeout, MILLISECONDS)) {
+                LOGGER.warn("{} - Pool was not filled to minimumIdle={} within {}ms, starting with {} connections.", poolName, config.getMinimumIdle(), timeout, getTotalConnections());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            fillLatch = null;
+        }
+    }
+
+    private void setAddConnectionConcurrency(final int threads) {
+        // keep core <= max at every step
+        if (threads > addConnectionExecutor.getMaximumPoolSize()) {
+            addConnectionExecutor.setMaximumPoolSize(threads);
+            addConnectionExecutor.setCorePoolSize(threads);
+        }
+        else {
+            addConnectionExecutor.setCorePoolSize(threads);
+            addConnectionExecutor.setMaximumPoolSize(threads);
         }
     }
 
@@ -430,10 +827,165 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
 
     private void throwPoolInitializationException(Throwable t) {
         LOGGER.error("{} - Exception during pool initialization.", poolName, t);
+        timerWheelTask.cancel(false); // a user-supplied executor outlives the failed pool
+        timerWheelTask = null;
         destroyHouseKeepingExecutorService();
         throw new PoolInitializationException(t);
     }
 
+    private void adjustPoolSize() {
+        try {
+            final int ceiling = config.getMaximumPoolSize();
+            final int floor = Math.max(1, Math.min(config.getMinimumIdle(), ceiling));
+            final int waiting = getThreadsAwaitingConnection();
+            final int previous = sizeController.getEffectiveSize();
+            final int size = sizeController.sample(floor, ceiling, getActiveConnections(), waiting);
+            if (size == previous) {
+                return;
+            }
+
+            LOGGER.debug("{} - Pool size {}", poolName, sizeController.getLastDecision());
+            if (size > previous) {
+                if (waiting > 0) {
+                    addBagItem(waiting); // creators stopped at the old size
+                }
+                return;
+            }
+
+            int surplus = getTotalConnections() - size;
+            for (PoolEntry entry : connectionBag.values(STATE_NOT_IN_USE)) {
+                if (surplus <= 0) {
+                    break;
+                }
+                if (connectionBag.reserve(entry)) {
+                    closeConnection(entry, "(pool size reduced)");
+                    surplus--;
+                }
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Unexpected exception in pool sizing task", e);
+        }
+    }
+
+    private PoolEntry borrowIdleForTenant(final String tenantKey) {
+        final PoolEntry matching = connectionBag.borrowIdle(entry -> tenantKey.equals(entry.tenantKey));
+        if (matching != null || !hasTenantCapacity(tenantKey)) {
+            return matching;
+        }
+
+        final PoolEntry unbound = connectionBag.borrowIdle(entry -> entry.tenantKey == null);
+        return unbound != null ? unbound : connectionBag.borrowIdle(entry -> canGiveUpTenant(entry.tenantKey));
+    }
+
+    private boolean hasTenantCapacity(final String tenantKey) {
+        final int max = config.getTenantMaximumConnections();
+        return max <= 0 || getTenantConnections(tenantKey) < max;
+    }
+
+    private boolean canGiveUpTenant(final String tenantKey) {
+        return tenantKey == null || getTenantConnections(tenantKey) > config.getTenantMinimumConnections();
+    }
+
+    // one of the tenant's own entries or, while it has capacity left, one that can be switched over
+    private boolean isTenantEligible(final String tenantKey, final PoolEntry poolEntry) {
+        return tenantKey.equals(poolEntry.tenantKey) || (hasTenantCapacity(tenantKey) && canGiveUpTenant(poolEntry.tenantKey));
+    }
+
+    /**
+     * Rebind a borrowed entry to another tenant.  If the tenant is at its maximum, or the entry's current tenant at
+     * its minimum, the entry is given back; if switching the schema fails it is closed.
+     *
+     * @return true if the entry now belongs to the tenant
+     */
+    private boolean switchTenant(final PoolEntry poolEntry, final String tenantKey) {
+        final int max = config.getTenantMaximumConnections();
+        final AtomicInteger counter = tenantCounter(tenantKey);
+        final String previous = poolEntry.tenantKey;
+        final AtomicInteger previousCounter = previous != null ? tenantCounter(previous) : null;
+
+        if (!increment(counter, max > 0 ? max : Integer.MAX_VALUE)) {
+            connectionBag.requite(poolEntry);
+            return false;
+        }
+        if (previousCounter != null && !decrement(previousCounter, config.getTenantMinimumConnections())) {
+            counter.decrementAndGet();
+            connectionBag.requite(poolEntry);
+            return false;
+        }
+
+        poolEntry.tenantKey = tenantKey;
+        try {
+            if (previous == null) {
+                poolEntry.untaggedSchema = config.getSchema() != null ? config.getSchema() : poolEntry.connection.getSchema();
+            }
+            poolEntry.connection.setSchema(tenantKey);
+            poolEntry.schemaState = tenantKey;
+            poolEntry.pendingResetBits &= ~ProxyConnection.DIRTY_BIT_SCHEMA; // a deferred schema reset would undo it
+            return true;
+        }
+        catch (SQLException e) {
+            LOGGER.warn("{} - Failed to switch connection {} to tenant {}", poolName, poolEntry.connection, tenantKey, e);
+            closeConnection(poolEntry, "(failed to switch tenant schema)");
+            return false;
+        }
+    }
+
+    /**
+     * Unbind a tenant's entry borrowed without a tenant key, restoring the schema it had before it was bound.
+     *
+     * @return true if the entry can be used, false if restoring the schema failed and it was closed
+     */
+    private boolean releaseTenant(final PoolEntry poolEntry) {
+        try {
+            poolEntry.connection.setSchema(poolEntry.untaggedSchema);
+            poolEntry.schemaState = poolEntry.untaggedSchema;
+            poolEntry.pendingResetBits &= ~ProxyConnection.DIRTY_BIT_SCHEMA;
+            untag(poolEntry);
+            return true;
+        }
+        catch (SQLException e) {
+            LOGGER.warn("{} - Failed to reset the schema of tenant connection {}", poolName, poolEntry.connection, e);
+            closeConnection(poolEntry, "(failed to reset tenant schema)");
+            return false;
+        }
+    }
+
+    private AtomicInteger tenantCounter(final String tenantKey) {
+        return tenantConnections.computeIfAbsent(tenantKey, key -> new AtomicInteger());
+    }
+
+    private static boolean increment(final AtomicInteger counter, final int limit) {
+        int current;
+        do {
+            current = counter.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private static boolean decrement(final AtomicInteger counter, final int floor) {
+        int current;
+        do {
+            current = counter.get();
+            if (current <= floor) {
+                return false;
+            }
+        } while (!counter.compareAndSet(current, current - 1));
+        return true;
+    }
+
+    /**
+     * An entry used within the alive-bypass window, or validated by the background validator within the last two
+     * periods (one missed round is tolerated), is handed out without an inline alive check.
+     */
+    private boolean isRecentlyValidated(final PoolEntry poolEntry, final long now) {
+        return elapsedMillis(poolEntry.lastAccessed, now) <= aliveBypassWindowMs
+                || (backgroundValidationPeriodMs > 0 && elapsedMillis(poolEntry.validatedAt, now) <= 2 * backgroundValidationPeriodMs);
+    }
+
     private boolean softEvictConnection(final PoolEntry poolEntry, final String reason, final boolean owner) {
         poolEntry.markEvicted();
         if (owner || connectionBag.reserve(poolEntry)) {
@@ -477,16 +1029,39 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         };
     }
 
+    private void admit(final long hardTimeout) throws ConnectionRejectedException {
+        if (admissionController == null || getIdleConnections() > 0) {
+            return;
+        }
+
+        final String reason = admissionController.admit(getThreadsAwaitingConnection(), hardTimeout, getTotalConnections() < getEffectiveMaximumPoolSize());
+        if (reason != null) {
+            metricsTracker.recordConnectionRejected();
+            throw new ConnectionRejectedException(poolName + " - Connection request rejected, " + reason + ".");
+        }
+    }
+
     private SQLException createTimeoutException(long startTime) {
         logPoolState("Timeout failure ");
         metricsTracker.recordConnectionTimeout();
+        connectionTimeouts.increment();
+
+        return createUnavailableException("request timed out after " + elapsedMillis(startTime) + "ms.");
+    }
+
+    private SQLException createCircuitOpenException(long startTime) {
+        logPoolState("Circuit open failure ");
+        return createUnavailableException("circuit breaker is open after " + connectionBreaker.getConsecutiveFailures()
+                + " consecutive connection failures (failed after " + elapsedMillis(startTime) + "ms).");
+    }
 
+    private SQLException createUnavailableException(final String reason) {
         String sqlState = null;
         final Throwable originalException = getLastConnectionFailure();
         if (originalException instanceof SQLException) {
             sqlState = ((SQLException) originalException).getSQLState();
         }
-        final SQLException connectionException = new SQLTransientConnectionException(poolName + " - Connection is not available, request timed out after " + elapsedMillis(startTime) + "ms.", sqlState, originalException);
+        final SQLException connectionException = new SQLTransientConnectionException(poolName + " - Connection is not available, " + reason, sqlState, originalException);
         if (originalException instanceof SQLException) {
             connectionException.setNextException((SQLException) originalException);
         }
@@ -510,11 +1085,24 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         public Boolean call()
         {
             long sleepBackoff = 250L;
-            while (poolState == POOL_NORMAL && shouldCreateAnotherConnection()) {
-                final PoolEntry poolEntry = createPoolEntry();
+            while (poolState == POOL_NORMAL && reserveCreation()) {
+                final PoolEntry poolEntry;
+                try {
+                    poolEntry = createPoolEntry();
+                    if (poolEntry != null) {
+                        connectionBag.add(poolEntry);
+                    }
+                }
+                finally {
+                    pendingCreations.decrementAndGet();
+                }
+
                 if (poolEntry != null) {
-                    connectionBag.add(poolEntry);
                     LOGGER.debug("{} - Added connection {}", poolName, poolEntry.connection);
+                    final CountDownLatch latch = fillLatch;
+                    if (latch != null) {
+                        latch.countDown();
+                    }
                     if (loggingPrefix != null) {
                         logPoolState(loggingPrefix);
                     }
@@ -531,9 +1119,160 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
             return Boolean.FALSE;
         }
 
-        private synchronized boolean shouldCreateAnotherConnection() {
-            return getTotalConnections() < config.getMaximumPoolSize() &&
-                    (connectionBag.getWaitingThreadCount() > 0 || getIdleConnections() < config.getMinimumIdle());
+        // checks and claims a creation slot atomically, so concurrent creators stop at the pool size and the demand
+        private boolean reserveCreation() {
+            creationLock.lock();
+            try {
+                final int pending = pendingCreations.get();
+                if (getTotalConnections() + pending < getEffectiveMaximumPoolSize() &&
+                        (connectionBag.getWaitingThreadCount() > pending || getIdleConnections() + pending < config.getMinimumIdle())) {
+                    pendingCreations.incrementAndGet();
+                    return true;
+                }
+
+                return false;
+            }
+            finally {
+                creationLock.unlock();
+            }
+        }
+    }
+
+    private final class AsyncConnectionRequest {
+        private final CompletableFuture<Connection> result = new CompletableFuture<>();
+        private final long startTime = currentTime();
+        private final long hardTimeout;
+        private final int suspendCell; // counts the request as in flight until it completes
+        private final String holdSite = holdTimeStatistics.borrowSite(null);
+        // the request may complete on a returning or validating thread; leaks are reported against the caller
+        private final Thread borrower = Thread.currentThread();
+        private final Exception borrowStack = leakTaskFactory.captureBorrowStack();
+        private volatile CompletableFuture<PoolEntry> pending;
+
+        AsyncConnectionRequest(final long hardTimeout, final int suspendCell) {
+            this.hardTimeout = hardTimeout;
+            this.suspendCell = suspendCell;
+        }
+
+        CompletableFuture<Connection> start() {
+            final TimerWheel.Timeout timeoutTask = timerWheel.schedule(this::timeout, hardTimeout, MILLISECONDS);
+            result.whenComplete((connection, t) -> {
+                suspendResumeLock.release(suspendCell);
+                timeoutTask.cancel();
+                final CompletableFuture<PoolEntry> bagFuture = pending;
+                if (bagFuture != null) {
+                    bagFuture.complete(null); // withdraw from the bag if still waiting
+                }
+            });
+
+            borrow();
+            return result;
+        }
+
+        private void borrow() {
+            // ordered among blocked borrowers by the request's own deadline, also when borrowing again
+            final CompletableFuture<PoolEntry> bagFuture = connectionBag.borrowAsync(Math.max(0L, hardTimeout - elapsedMillis(startTime)), MILLISECONDS);
+            pending = bagFuture;
+            if (result.isDone()) {
+                bagFuture.complete(null);
+            }
+
+            bagFuture.thenAccept(this::onEntry);
+        }
+
+        private void onEntry(final PoolEntry poolEntry) {
+            if (poolEntry == null) {
+                // withdrawn by timeout or cancellation, released because the circuit breaker opened, or the bag was
+                // closed underneath us
+                if (result.isDone()) {
+                    return;
+                }
+
+                if (poolState == POOL_SHUTDOWN) {
+                    result.completeExceptionally(new SQLTransientConnectionException(poolName + " - Pool has been shutdown"));
+                }
+                else if (connectionBreaker.isOpen()) {
+                    result.completeExceptionally(createCircuitOpenException(startTime));
+                }
+                else if (elapsedMillis(startTime) < hardTimeout) {
+                    borrow(); // the breaker closed again before we were told
+                }
+                else {
+                    timeout();
+                }
+                return;
+            }
+
+            if (result.isDone()) {
+                connectionBag.requite(poolEntry);
+                return;
+            }
+
+            if (poolEntry.isMarkedEvicted()) {
+                closeConnection(poolEntry, EVICTED_CONNECTION_MESSAGE);
+                borrow();
+            }
+            else if (!isRecentlyValidated(poolEntry, currentTime()) || poolEntry.tenantKey != null) {
+                // the alive check and the tenant schema reset go to the database, keep them off the returning thread
+                final boolean validate = !isRecentlyValidated(poolEntry, currentTime());
+                asyncValidationExecutor.execute(() -> {
+                    if (result.isDone()) {
+                        connectionBag.requite(poolEntry);
+                    }
+                    else if (validate && !isConnectionAlive(poolEntry)) {
+                        closeConnection(poolEntry, DEAD_CONNECTION_MESSAGE);
+                        borrow();
+                    }
+                    else if (poolEntry.tenantKey != null && !releaseTenant(poolEntry)) {
+                        borrow(); // closed
+                    }
+                    else {
+                        complete(poolEntry, validate);
+                    }
+                });
+            }
+            else {
+                complete(poolEntry, false);
+            }
+        }
+
+        private void complete(final PoolEntry poolEntry, final boolean validated) {
+            final Connection connection;
+            try {
+                metricsTracker.recordBorrowStats(poolEntry, startTime);
+                if (sizeController != null) {
+                    sizeController.recordBorrow(poolEntry, startTime);
+                }
+                if (PoolEvents.ENABLED) {
+                    PoolEvents.borrowed(TestPool.this, elapsedNanos(startTime), validated, true);
+                }
+                connection = poolEntry.createProxyConnection(leakTaskFactory.schedule(poolEntry, borrower, borrowStack), currentTime(), holdSite);
+            }
+            catch (Throwable e) {
+                connectionBag.requite(poolEntry);
+                result.completeExceptionally(e);
+                return;
+            }
+
+            if (!result.complete(connection)) {
+                // timed out or cancelled while we were creating the proxy
+                try {
+                    connection.close();
+                }
+                catch (SQLException e) {
+                    LOGGER.debug("{} - Failed to return connection after abandoned async acquisition", poolName, e);
+                }
+            }
+        }
+
+        private void timeout() {
+            if (!result.isDone()) {
+                metricsTracker.recordBorrowTimeoutStats(startTime);
+                if (PoolEvents.ENABLED) {
+                    PoolEvents.borrowed(TestPool.this, elapsedNanos(startTime), false, false);
+                }
+                result.completeExceptionally(createTimeoutException(startTime));
+            }
         }
     }
 
@@ -592,6 +1331,61 @@ public final class TestPool extends PoolBase implements TestPoolMXBean, IBagStat
         }
     }
 
+    /**
+     * Walks the idle connections and queues each one not validated within the last half period; up to
+     * backgroundValidationConcurrency of them are validated at once.  An entry is reserved only while its own check
+     * runs, so a borrower is never kept waiting on a queued validation.
+     */
+    private final class BackgroundValidator implements Runnable {
+        @Override
+        public void run() {
+            try {
+                final long now = currentTime();
+                for (PoolEntry entry : connectionBag.values(STATE_NOT_IN_USE)) {
+                    if (isDue(entry, now)) {
+                        backgroundValidationExecutor.execute(() -> validate(entry));
+                    }
+                }
+            }
+            catch (Exception e) {
+                LOGGER.error("Unexpected exception in background validation task", e);
+            }
+        }
+
+        private boolean isDue(final PoolEntry entry, final long now) {
+            return elapsedMillis(entry.validatedAt, now) >= backgroundValidationPeriodMs / 2;
+        }
+
+        private void validate(final PoolEntry entry) {
+            if (poolState != POOL_NORMAL || !isDue(entry, currentTime()) || !connectionBag.reserve(entry)) {
+                return; // borrowed, evicted or validated since it was queued
+            }
+
+            if (entry.isMarkedEvicted()) {
+                closeConnection(entry, EVICTED_CONNECTION_MESSAGE);
+            }
+            else if (isConnectionAlive(entry)) {
+                entry.validatedAt = currentTime();
+                connectionBag.unreserve(entry);
+            }
+            else {
+                closeConnection(entry, DEAD_CONNECTION_MESSAGE); // refills the pool
+            }
+        }
+    }
+
+    /**
+     * Thrown without waiting when the pool is saturated and a request would exceed maximumWaitingRequests, or, with
+     * loadShedding, could not be served within its timeout.
+     */
+    public static class ConnectionRejectedException extends SQLTransientConnectionException {
+        private static final long serialVersionUID = 929872118275916523L;
+
+        public ConnectionRejectedException(String message) {
+            super(message);
+        }
+    }
+
     public static class PoolInitializationException extends RuntimeException {
         private static final long serialVersionUID = 929872118275916520L;
 
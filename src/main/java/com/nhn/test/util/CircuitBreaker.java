@@ -0,0 +1,75 @@
+package com.nhn.test.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.nhn.test.util.ClockSource.currentTime;
+import static com.nhn.test.util.ClockSource.elapsedMillis;
+
+/**
+ * Consecutive-failure circuit breaker.  It opens after {@code failureThreshold} consecutive failures; once
+ * {@code openTimeoutMs} has passed a single caller is let through as a half-open probe, whose success closes the
+ * breaker and whose failure re-opens it for another timeout.  A threshold of 0 disables the breaker.
+ */
+public final class CircuitBreaker {
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long openTimeoutMs;
+
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+
+    public CircuitBreaker(final int failureThreshold, final long openTimeoutMs) {
+        this.failureThreshold = failureThreshold;
+        this.openTimeoutMs = openTimeoutMs;
+    }
+
+    /**
+     * @return true if the caller may attempt the operation, and must then report {@link #onSuccess()} or
+     *         {@link #onFailure()}
+     */
+    public boolean tryAcquirePermission() {
+        switch (state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return elapsedMillis(openedAt) >= openTimeoutMs && state.compareAndSet(OPEN, HALF_OPEN);
+            default:
+                return false; // a probe is already in flight
+        }
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(CLOSED);
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    public boolean onFailure() {
+        if (failureThreshold <= 0) {
+            return false;
+        }
+
+        if (state.get() == HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt = currentTime();
+            return state.getAndSet(OPEN) != OPEN;
+        }
+        return false;
+    }
+
+    /**
+     * @return true while calls are being rejected, i.e. the breaker is open or a half-open probe is in flight
+     */
+    public boolean isOpen() {
+        return state.get() != CLOSED;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+}
@@ -9,23 +9,44 @@ import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
-import static com.nhn.test.util.ClockSource.currentTime;
-import static com.nhn.test.util.ClockSource.elapsedNanos;
 import static com.nhn.test.util.ConcurrentBag.IConcurrentBagEntry.*;
-import static java.util.concurrent.TimeUnit.MICROSECONDS;
-import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static com.nhn.test.util.UtilityElf.isVirtualThread;
 import static java.util.concurrent.locks.LockSupport.parkNanos;
+import static java.util.concurrent.locks.LockSupport.unpark;
 
 public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentBag.class);
 
-    private final CopyOnWriteArrayList<T> sharedList;
+    private static final int MAX_STRIPES = 64;
+
+    public static final int PRIORITY_NORMAL = 0;
+
+    private static final Predicate<Object> ANY = entry -> true;
+
+    // deadline of async borrowers without one, far enough out to still compare by nanoTime difference
+    private static final long NO_DEADLINE_NANOS = Long.MAX_VALUE >> 2;
+
+    // Virtual threads are cheap and short-lived, a per-thread cache would only grow memory without ever being hit
+    private static final List<Object> NO_THREAD_LIST = Collections.emptyList();
+
+    // The shared list is split into stripes; a thread that misses its thread-local list starts scanning at the
+    // stripe its id hashes to, so threads do not all CAS the same few entries at the head of a single list.
+    private final CopyOnWriteArrayList<T>[] stripes;
+    private final int stripeMask;
+    private final AtomicInteger size;
+    private final LongAdder contentionCount;
+    private final LongAdder[] stateCounters;
     private final boolean weakThreadLocals;
 
     private final ThreadLocal<List<Object>> threadList;
@@ -33,7 +54,11 @@ public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseab
     private final AtomicInteger waiters;
     private volatile boolean closed;
 
-    private final SynchronousQueue<T> handoffQueue;
+    // blocked and async borrowers, most urgent first: higher priority, then earlier deadline, then arrival order
+    private final ConcurrentSkipListSet<Waiter> waitQueue;
+    private final AtomicLong waiterSequence;
+
+    private final AtomicInteger asyncWaiterCount;
 
     public interface IConcurrentBagEntry {
         int STATE_NOT_IN_USE = 0;
@@ -54,9 +79,17 @@ public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseab
         this.listener = listener;
         this.weakThreadLocals = useWeakThreadLocals();
 
-        this.handoffQueue = new SynchronousQueue<>(true);
+        this.waitQueue = new ConcurrentSkipListSet<>();
+        this.waiterSequence = new AtomicLong();
         this.waiters = new AtomicInteger();
-        this.sharedList = new CopyOnWriteArrayList<>();
+        this.asyncWaiterCount = new AtomicInteger();
+        this.size = new AtomicInteger();
+        this.contentionCount = new LongAdder();
+        this.stateCounters = new LongAdder[] { new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+
+        final int stripeCount = stripeCount();
+        this.stripeMask = stripeCount - 1;
+        this.stripes = newStripes(stripeCount);
         if (weakThreadLocals) {
             this.threadList = ThreadLocal.withInitial(() -> new ArrayList<>(16));
         } else {
@@ -65,67 +98,151 @@ public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseab
     }
 
     public T borrow(long timeout, final TimeUnit timeUnit) throws InterruptedException {
+        return borrow(timeout, timeUnit, PRIORITY_NORMAL);
+    }
+
+    /**
+     * Borrow an entry, waiting up to the timeout if none is idle.  Entries returned while threads are waiting go to
+     * the most urgent waiter: the highest priority, then the earliest deadline.  Waiters whose deadline has passed are
+     * skipped.  Blocked threads and async waiters ({@link #borrowAsync(long, TimeUnit)}) are served from the same
+     * queue, in the same order.
+     *
+     * @param priority the priority of the request, higher is served first; {@link #PRIORITY_NORMAL} by default
+     * @return a borrowed entry, or null on timeout
+     */
+    public T borrow(long timeout, final TimeUnit timeUnit, final int priority) throws InterruptedException {
         // Try the thread-local list first
-        final List<Object> list = threadList.get();
+        final List<Object> list = threadLocalList();
         for (int i = list.size() - 1; i >= 0; i--) {
             final Object entry = list.remove(i);
             @SuppressWarnings("unchecked")
             final T bagEntry = weakThreadLocals ? ((WeakReference<T>) entry).get() : (T) entry;
-            if (bagEntry != null && bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+            if (bagEntry != null && transition(bagEntry, STATE_NOT_IN_USE, STATE_IN_USE)) {
                 return bagEntry;
             }
         }
 
-        // Otherwise, scan the shared list ... then poll the handoff queue
-        final int waiting = waiters.incrementAndGet();
+        return borrowShared(timeout, timeUnit, priority, ANY);
+    }
+
+    /**
+     * Borrow an entry accepted by the filter, waiting up to the timeout if none is idle.  The waiter is queued with
+     * every other borrower and served in the same order, but only with entries the filter accepts; a returned entry it
+     * rejects goes on to the next waiter.  The thread-local list is not looked at.
+     *
+     * @param filter tested against idle entries, also by the threads returning them; it must not block
+     * @return a borrowed entry, or null on timeout
+     * @see #offerIdle()
+     */
+    public T borrow(long timeout, final TimeUnit timeUnit, final int priority, final Predicate<? super T> filter) throws InterruptedException {
+        return borrowShared(timeout, timeUnit, priority, filter);
+    }
+
+    private T borrowShared(final long timeout, final TimeUnit timeUnit, final int priority, final Predicate<? super T> filter) throws InterruptedException {
+        // Scan the shared list ... then poll the handoff queue
+        final int waiting = waiters.incrementAndGet() + asyncWaiterCount.get();
         try {
-            for (T bagEntry : sharedList) {
-                if (bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
-                    // If we may have stolen another waiter's connection, request another bag add.
-                    if (waiting > 1) {
-                        listener.addBagItem(waiting - 1);
-                    }
-                    return bagEntry;
+            final T stolen = scanStripes(filter);
+            if (stolen != null) {
+                // If we may have stolen another waiter's connection, request another bag add.
+                if (waiting > 1) {
+                    listener.addBagItem(waiting - 1);
                 }
+                return stolen;
             }
 
             listener.addBagItem(waiting);
 
-            timeout = timeUnit.toNanos(timeout);
-            do {
-                final long start = currentTime();
-                final T bagEntry = handoffQueue.poll(timeout, NANOSECONDS);
-                if (bagEntry == null || bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
-                    return bagEntry;
-                }
-
-                timeout -= elapsedNanos(start);
-            } while (timeout > 10_000);
-
-            return null;
+            final Waiter waiter = new Waiter(Thread.currentThread(), priority, System.nanoTime() + timeUnit.toNanos(timeout), waiterSequence.getAndIncrement(), filter);
+            waitQueue.add(waiter);
+            try {
+                return awaitHandoff(waiter);
+            }
+            finally {
+                waitQueue.remove(waiter);
+            }
         }
         finally {
             waiters.decrementAndGet();
         }
     }
 
-    public void requite(final T bagEntry) {
-        bagEntry.setState(STATE_NOT_IN_USE);
+    /**
+     * Like {@link #borrowAsync(long, TimeUnit)}, queued behind every waiter with a deadline.
+     */
+    public CompletableFuture<T> borrowAsync() {
+        return borrowAsync(NO_DEADLINE_NANOS, TimeUnit.NANOSECONDS);
+    }
 
-        for (int i = 0; waiters.get() > 0; i++) {
-            if (bagEntry.getState() != STATE_NOT_IN_USE || handoffQueue.offer(bagEntry)) {
-                return;
+    /**
+     * Borrow an entry without blocking.  If no entry is idle, the returned future is queued and completed (with the
+     * entry already in the IN_USE state) by the next {@link #requite}, {@link #add} or {@link #unreserve}.  The
+     * timeout only places the request among the other waiters, like a blocked borrower with the same deadline; the
+     * caller owns the timeout itself: completing the future with {@code null} withdraws the request.
+     *
+     * @return a future that completes with a borrowed entry, or with {@code null} if the caller gave up or the bag
+     *         was closed
+     */
+    public CompletableFuture<T> borrowAsync(final long timeout, final TimeUnit timeUnit) {
+        T bagEntry = scanStripes(ANY);
+        if (bagEntry != null) {
+            return CompletableFuture.completedFuture(bagEntry);
+        }
+
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Waiter waiter = new Waiter(future, PRIORITY_NORMAL, System.nanoTime() + Math.min(timeUnit.toNanos(timeout), NO_DEADLINE_NANOS), waiterSequence.getAndIncrement(), ANY);
+        waitQueue.add(waiter);
+        final int waiting = asyncWaiterCount.incrementAndGet() + waiters.get();
+        future.whenComplete((entry, t) -> {
+            asyncWaiterCount.decrementAndGet();
+            if (entry == null) {
+                waitQueue.remove(waiter);
             }
-            else if ((i & 0xff) == 0xff) {
-                parkNanos(MICROSECONDS.toNanos(10));
+        });
+
+        if (closed) {
+            future.complete(null);
+            return future;
+        }
+
+        // An entry may have been requited between the scan and the enqueue; requite() makes the entry visible before
+        // it looks for async waiters, so scanning again after enqueueing cannot miss it.
+        bagEntry = scanStripes(ANY);
+        if (bagEntry != null) {
+            if (!future.complete(bagEntry)) {
+                requite(bagEntry);
             }
-            else {
-                Thread.yield();
+            return future;
+        }
+
+        listener.addBagItem(waiting);
+        return future;
+    }
+
+    /**
+     * Borrow an idle entry accepted by the filter, without waiting and without looking at the thread-local list.
+     *
+     * @return a borrowed entry, or null if no idle entry matches
+     */
+    public T borrowIdle(final Predicate<? super T> filter) {
+        return scanStripes(filter);
+    }
+
+    public void requite(final T bagEntry) {
+        if (!transition(bagEntry, STATE_IN_USE, STATE_NOT_IN_USE)) {
+            // an entry removed while borrowed (e.g. evicted) is still returned by its borrower; nothing to do then
+            if (bagEntry.getState() != STATE_REMOVED) {
+                LOGGER.warn("Attempt to requite an object to the bag that was not borrowed: {}", bagEntry);
             }
+            return;
+        }
+
+        if (getWaitingThreadCount() > 0 && handoff(bagEntry)) {
+            return;
         }
 
-        final List<Object> threadLocalList = threadList.get();
-        if (threadLocalList.size() < 50) {
+        final List<Object> threadLocalList = threadLocalList();
+        if (threadLocalList != NO_THREAD_LIST && threadLocalList.size() < 50) {
             threadLocalList.add(weakThreadLocals ? new WeakReference<>(bagEntry) : bagEntry);
         }
     }
@@ -136,26 +253,42 @@ public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseab
             throw new IllegalStateException("ConcurrentBag has been closed, ignoring add()");
         }
 
-        sharedList.add(bagEntry);
+        stateCounters[slot(bagEntry.getState())].increment();
+        leastLoadedStripe().add(bagEntry);
+        size.incrementAndGet();
 
-        // spin until a thread takes it or none are waiting
-        while (waiters.get() > 0 && bagEntry.getState() == STATE_NOT_IN_USE && !handoffQueue.offer(bagEntry)) {
-            Thread.yield();
+        if (getWaitingThreadCount() > 0) {
+            handoff(bagEntry);
         }
     }
 
     public boolean remove(final T bagEntry) {
-        if (!bagEntry.compareAndSet(STATE_IN_USE, STATE_REMOVED) && !bagEntry.compareAndSet(STATE_RESERVED, STATE_REMOVED) && !closed) {
+        // counted below, once the entry is known to have been in the bag
+        int previous = STATE_IN_USE;
+        boolean transitioned = bagEntry.compareAndSet(STATE_IN_USE, STATE_REMOVED);
+        if (!transitioned) {
+            previous = STATE_RESERVED;
+            transitioned = bagEntry.compareAndSet(STATE_RESERVED, STATE_REMOVED);
+        }
+        if (!transitioned && !closed) {
             LOGGER.warn("Attempt to remove an object from the bag that was not borrowed or reserved: {}", bagEntry);
             return false;
         }
 
-        final boolean removed = sharedList.remove(bagEntry);
-        if (!removed && !closed) {
+        boolean removed = false;
+        for (int i = 0; i <= stripeMask && !removed; i++) {
+            removed = stripes[i].remove(bagEntry);
+        }
+
+        if (removed) {
+            size.decrementAndGet();
+            stateCounters[slot(transitioned ? previous : bagEntry.getState())].decrement();
+        }
+        else if (!closed) {
             LOGGER.warn("Attempt to remove an object from the bag that does not exist: {}", bagEntry);
         }
 
-        threadList.get().remove(bagEntry);
+        threadLocalList().remove(bagEntry);
 
         return removed;
     }
@@ -163,29 +296,65 @@ public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseab
     @Override
     public void close() {
         closed = true;
+
+        // release async waiters, nothing will be requited to them anymore
+        for (Waiter waiter : waitQueue) {
+            if (waiter.future != null) {
+                waiter.future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Release every waiting borrower without an entry: blocked borrowers return null early and async waiters complete
+     * with null, so they can re-check why they are waiting.
+     */
+    public void releaseWaiters() {
+        for (Waiter waiter : waitQueue) {
+            waiter.release();
+        }
+    }
+
+    /**
+     * Offer the idle entries to the waiters again, for when a borrower's filter may now accept an entry it rejected
+     * when the entry was returned.
+     */
+    public void offerIdle() {
+        for (CopyOnWriteArrayList<T> stripe : stripes) {
+            for (T bagEntry : stripe) {
+                if (getWaitingThreadCount() == 0) {
+                    return;
+                }
+                if (bagEntry.getState() == STATE_NOT_IN_USE) {
+                    handoff(bagEntry);
+                }
+            }
+        }
     }
 
     public List<T> values(final int state) {
-        final List<T> list = sharedList.stream().filter(e -> e.getState() == state).collect(Collectors.toList());
+        final List<T> list = values().stream().filter(e -> e.getState() == state).collect(Collectors.toList());
         Collections.reverse(list);
         return list;
     }
 
-    @SuppressWarnings("unchecked")
     public List<T> values() {
-        return (List<T>) sharedList.clone();
+        final List<T> list = new ArrayList<>(size.get());
+        for (CopyOnWriteArrayList<T> stripe : stripes) {
+            list.addAll(stripe);
+        }
+        return list;
     }
 
     public boolean reserve(final T bagEntry) {
-        return bagEntry.compareAndSet(STATE_NOT_IN_USE, STATE_RESERVED);
+        return transition(bagEntry, STATE_NOT_IN_USE, STATE_RESERVED);
     }
 
     @SuppressWarnings("SpellCheckingInspection")
     public void unreserve(final T bagEntry) {
-        if (bagEntry.compareAndSet(STATE_RESERVED, STATE_NOT_IN_USE)) {
-            // spin until a thread takes it or none are waiting
-            while (waiters.get() > 0 && !handoffQueue.offer(bagEntry)) {
-                Thread.yield();
+        if (transition(bagEntry, STATE_RESERVED, STATE_NOT_IN_USE)) {
+            if (getWaitingThreadCount() > 0) {
+                handoff(bagEntry);
             }
         }
         else {
@@ -194,36 +363,283 @@ public class ConcurrentBag<T extends IConcurrentBagEntry> implements AutoCloseab
     }
 
     public int getWaitingThreadCount() {
-        return waiters.get();
+        return waiters.get() + asyncWaiterCount.get();
     }
 
     public int getCount(final int state) {
-        int count = 0;
-        for (IConcurrentBagEntry e : sharedList) {
-            if (e.getState() == state) {
-                count++;
-            }
-        }
-        return count;
+        return (int) stateCounters[slot(state)].sum();
     }
 
+    /**
+     * Get the number of entries in each state, plus the bag size and the number of waiters.
+     *
+     * @return [NOT_IN_USE, IN_USE, REMOVED, RESERVED, size, waiters]
+     */
     public int[] getStateCounts() {
         final int[] states = new int[6];
-        for (IConcurrentBagEntry e : sharedList) {
-            ++states[e.getState()];
+        for (int i = 0; i < stateCounters.length; i++) {
+            states[i] = (int) stateCounters[i].sum();
         }
-        states[4] = sharedList.size();
-        states[5] = waiters.get();
+        states[4] = size.get();
+        states[5] = getWaitingThreadCount();
 
         return states;
     }
 
     public int size() {
-        return sharedList.size();
+        return size.get();
+    }
+
+    /**
+     * @return the number of times a borrower found an entry idle but lost the CAS race for it to another thread
+     */
+    public long getContentionCount() {
+        return contentionCount.sum();
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
     }
 
     public void dumpState() {
-        sharedList.forEach(entry -> LOGGER.info(entry.toString()));
+        for (CopyOnWriteArrayList<T> stripe : stripes) {
+            stripe.forEach(entry -> LOGGER.info(entry.toString()));
+        }
+    }
+
+    private List<Object> threadLocalList() {
+        return isVirtualThread(Thread.currentThread()) ? NO_THREAD_LIST : threadList.get();
+    }
+
+    private T scanStripes(final Predicate<? super T> filter) {
+        final int home = homeStripe();
+        for (int i = 0; i <= stripeMask; i++) {
+            for (T bagEntry : stripes[(home + i) & stripeMask]) {
+                if (bagEntry.getState() != STATE_NOT_IN_USE || !filter.test(bagEntry)) {
+                    continue;
+                }
+
+                if (transition(bagEntry, STATE_NOT_IN_USE, STATE_IN_USE)) {
+                    return bagEntry;
+                }
+
+                contentionCount.increment();
+            }
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T awaitHandoff(final Waiter waiter) throws InterruptedException {
+        // An entry may have been requited between the scan and the enqueue; requite() makes the entry visible before
+        // it looks for waiters, so scanning again after enqueueing cannot miss it.
+        final T late = scanStripes(waiter.filter);
+        if (late != null) {
+            if (waiter.cancel() || waiter.slot == Waiter.CANCELLED) {
+                return late;
+            }
+            requite(late); // an entry was handed to us meanwhile
+            return (T) waiter.slot;
+        }
+
+        while (waiter.slot == null) {
+            final long remaining = waiter.deadline - System.nanoTime();
+            if (remaining <= 10_000L) {
+                if (waiter.cancel()) {
+                    return null;
+                }
+                break;
+            }
+
+            parkNanos(this, remaining);
+
+            if (Thread.interrupted()) {
+                if (waiter.cancel() || waiter.slot == Waiter.CANCELLED) {
+                    throw new InterruptedException();
+                }
+                Thread.currentThread().interrupt(); // handed an entry just now, keep it and the interrupt
+                break;
+            }
+        }
+
+        final Object slot = waiter.slot;
+        return slot != Waiter.CANCELLED ? (T) slot : null; // null if released by releaseWaiters()
+    }
+
+    /**
+     * Hand an idle entry directly to the most urgent blocked or async borrower whose deadline has not passed and whose
+     * filter accepts the entry.
+     *
+     * @return true if the entry is no longer idle (handed off, or taken by another borrower meanwhile)
+     */
+    private boolean handoff(final T bagEntry) {
+        final long now = System.nanoTime();
+        for (Waiter waiter : waitQueue) {
+            if (waiter.isDone() || waiter.deadline - now <= 0L) {
+                waitQueue.remove(waiter);
+                continue; // gave up, or out of time and about to give up
+            }
+
+            if (!waiter.filter.test(bagEntry) || !waitQueue.remove(waiter)) {
+                continue; // left for another entry, or claimed by a concurrent handoff
+            }
+
+            if (!transition(bagEntry, STATE_NOT_IN_USE, STATE_IN_USE)) {
+                // put it back unless it gave up meanwhile; checked after the add, as the waiter's own remove() may
+                // already have run while it was out of the queue
+                waitQueue.add(waiter);
+                if (waiter.isDone()) {
+                    waitQueue.remove(waiter);
+                }
+                return true;
+            }
+
+            if (waiter.offer(bagEntry)) {
+                return true;
+            }
+
+            // the waiter gave up concurrently, try the next one
+            transition(bagEntry, STATE_IN_USE, STATE_NOT_IN_USE);
+        }
+
+        return false;
+    }
+
+    // State counters are maintained here rather than by scanning, so getCount() costs O(1) in the pool size.  Every
+    // state change of an entry that is in the bag goes through the bag, so a successful CAS is the place to count it;
+    // only remove() counts separately, as the entry leaves the bag.
+    private boolean transition(final T bagEntry, final int expect, final int update) {
+        if (bagEntry.compareAndSet(expect, update)) {
+            stateCounters[slot(update)].increment();
+            stateCounters[slot(expect)].decrement();
+            return true;
+        }
+        return false;
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private static final Object CANCELLED = new Object();
+        private static final AtomicReferenceFieldUpdater<Waiter, Object> SLOT_UPDATER = AtomicReferenceFieldUpdater.newUpdater(Waiter.class, Object.class, "slot");
+
+        // either a blocked thread, or the future of an async borrower
+        private final Thread thread;
+        private final CompletableFuture<Object> future;
+        private final int priority;
+        private final long deadline;
+        private final long sequence;
+        private final Predicate<Object> filter;
+
+        // of a blocked thread: null while waiting, then the handed-off entry or CANCELLED, whichever CAS wins
+        private volatile Object slot;
+
+        @SuppressWarnings("unchecked")
+        Waiter(final Thread thread, final int priority, final long deadline, final long sequence, final Predicate<?> filter) {
+            this.thread = thread;
+            this.future = null;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.filter = (Predicate<Object>) filter;
+        }
+
+        @SuppressWarnings("unchecked")
+        Waiter(final CompletableFuture<?> future, final int priority, final long deadline, final long sequence, final Predicate<?> filter) {
+            this.thread = null;
+            this.future = (CompletableFuture<Object>) future;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.filter = (Predicate<Object>) filter;
+        }
+
+        boolean isDone() {
+            return future != null ? future.isDone() : slot != null;
+        }
+
+        boolean offer(final Object bagEntry) {
+            if (future != null) {
+                return future.complete(bagEntry);
+            }
+
+            if (SLOT_UPDATER.compareAndSet(this, null, bagEntry)) {
+                unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        boolean cancel() {
+            return SLOT_UPDATER.compareAndSet(this, null, CANCELLED);
+        }
+
+        void release() {
+            if (future != null) {
+                future.complete(null);
+            }
+            else if (cancel()) {
+                unpark(thread);
+            }
+        }
+
+        @Override
+        public int compareTo(final Waiter other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+
+            final long deadlineDiff = deadline - other.deadline; // nanoTime values, compare by difference
+            if (deadlineDiff != 0L) {
+                return deadlineDiff < 0L ? -1 : 1;
+            }
+
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static int slot(final int state) {
+        switch (state) {
+            case STATE_NOT_IN_USE:
+                return 0;
+            case STATE_IN_USE:
+                return 1;
+            case STATE_REMOVED:
+                return 2;
+            case STATE_RESERVED:
+                return 3;
+            default:
+                throw new IllegalArgumentException("Unknown bag entry state " + state);
+        }
+    }
+
+    private int homeStripe() {
+        final long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) & stripeMask;
+    }
+
+    private CopyOnWriteArrayList<T> leastLoadedStripe() {
+        CopyOnWriteArrayList<T> least = stripes[0];
+        for (int i = 1; i <= stripeMask; i++) {
+            if (stripes[i].size() < least.size()) {
+                least = stripes[i];
+            }
+        }
+        return least;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CopyOnWriteArrayList<T>[] newStripes(final int stripeCount) {
+        final CopyOnWriteArrayList<T>[] array = (CopyOnWriteArrayList<T>[]) new CopyOnWriteArrayList<?>[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            array[i] = new CopyOnWriteArrayList<>();
+        }
+        return array;
+    }
+
+    private static int stripeCount() {
+        final int requested = Integer.getInteger("com.nhn.test.bagStripes", Math.min(16, Runtime.getRuntime().availableProcessors()));
+        final int bounded = Math.max(1, Math.min(MAX_STRIPES, requested));
+        return bounded == 1 ? 1 : Integer.highestOneBit(bounded - 1) << 1;
     }
 
     private boolean useWeakThreadLocals() {
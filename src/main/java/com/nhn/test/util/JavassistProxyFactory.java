@@ -0,0 +1,232 @@
+package com.nhn.test.util;
+
+import com.nhn.test.pool.*;
+import javassist.*;
+import javassist.bytecode.ClassFile;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * This class generates the proxy objects for {@link Connection}, {@link Statement},
+ * {@link PreparedStatement}, and {@link CallableStatement}.  Additionally it injects
+ * method bodies into the {@link ProxyFactory} class methods that can instantiate
+ * instances of the generated proxies.
+ *
+ * It is run by the build (see the exec-maven-plugin execution in pom.xml) against the
+ * compiled classes, so the pool itself never generates or reflects at runtime.
+ */
+public final class JavassistProxyFactory {
+    private static ClassPool classPool;
+    private static String genDirectory = "target/classes";
+
+    private JavassistProxyFactory() {
+        // unconstructable
+    }
+
+    public static void main(String... args) throws Exception {
+        classPool = new ClassPool();
+        classPool.importPackage("java.sql");
+        classPool.appendClassPath(new LoaderClassPath(JavassistProxyFactory.class.getClassLoader()));
+
+        if (args.length > 0) {
+            genDirectory = args[0];
+        }
+
+        // Cast is not needed for these
+        String methodBody = "{ try { return delegate.method($$); } catch (SQLException e) { throw checkException(e); } }";
+        generateProxyClass(Connection.class, ProxyConnection.class.getName(), "{ try { applyPendingReset(); return delegate.method($$); } catch (SQLException e) { throw checkException(e); } }");
+        generateProxyClass(Statement.class, ProxyStatement.class.getName(), methodBody);
+        generateProxyClass(ResultSet.class, ProxyResultSet.class.getName(), methodBody);
+        generateProxyClass(DatabaseMetaData.class, ProxyDatabaseMetaData.class.getName(), methodBody);
+
+        // For these we have to cast the delegate
+        methodBody = "{ try { return ((cast) delegate).method($$); } catch (SQLException e) { throw checkException(e); } }";
+        generateProxyClass(PreparedStatement.class, ProxyPreparedStatement.class.getName(), methodBody);
+        generateProxyClass(CallableStatement.class, ProxyCallableStatement.class.getName(), methodBody);
+
+        modifyProxyFactory();
+    }
+
+    private static void modifyProxyFactory() throws NotFoundException, CannotCompileException, IOException {
+        System.out.println("Generating method bodies for " + ProxyFactory.class.getName());
+
+        final String packageName = ProxyConnection.class.getPackage().getName();
+        final CtClass proxyCt = classPool.getCtClass(ProxyFactory.class.getName());
+        for (CtMethod method : proxyCt.getMethods()) {
+            switch (method.getName()) {
+                case "getProxyConnection":
+                    method.setBody("{return new " + packageName + ".TestProxyConnection($$);}");
+                    break;
+                case "getProxyStatement":
+                    method.setBody("{return new " + packageName + ".TestProxyStatement($$);}");
+                    break;
+                case "getProxyPreparedStatement":
+                    method.setBody("{return new " + packageName + ".TestProxyPreparedStatement($$);}");
+                    break;
+                case "getProxyCallableStatement":
+                    method.setBody("{return new " + packageName + ".TestProxyCallableStatement($$);}");
+                    break;
+                case "getProxyResultSet":
+                    method.setBody("{return new " + packageName + ".TestProxyResultSet($$);}");
+                    break;
+                case "getProxyDatabaseMetaData":
+                    method.setBody("{return new " + packageName + ".TestProxyDatabaseMetaData($$);}");
+                    break;
+                default:
+                    // unhandled method
+                    break;
+            }
+        }
+
+        proxyCt.writeFile(genDirectory);
+    }
+
+    /**
+     *  Generate Javassist Proxy Classes
+     */
+    private static <T> void generateProxyClass(Class<T> primaryInterface, String superClassName, String methodBody) throws Exception {
+        final String newClassName = superClassName.replaceAll("(.+)\\.(\\w+)", "$1.Test$2");
+
+        final CtClass superCt = classPool.getCtClass(superClassName);
+        final CtClass targetCt = classPool.makeClass(newClassName, superCt);
+        targetCt.setModifiers(Modifier.PUBLIC | Modifier.FINAL);
+
+        System.out.println("Generating " + newClassName);
+
+        // Make a set of method signatures we inherit implementation for, so we don't generate delegates for these
+        final Set<String> superSigs = new HashSet<>();
+        for (CtMethod method : superCt.getMethods()) {
+            if ((method.getModifiers() & Modifier.FINAL) == Modifier.FINAL) {
+                superSigs.add(method.getName() + method.getSignature());
+            }
+        }
+
+        final Set<String> methods = new HashSet<>();
+        for (Class<?> intf : getAllInterfaces(primaryInterface)) {
+            final CtClass intfCt = classPool.getCtClass(intf.getName());
+            targetCt.addInterface(intfCt);
+            for (CtMethod intfMethod : intfCt.getDeclaredMethods()) {
+                final String signature = intfMethod.getName() + intfMethod.getSignature();
+
+                // don't generate delegates for methods we override, or that were already added from another interface
+                if (superSigs.contains(signature) || !methods.add(signature)) {
+                    continue;
+                }
+
+                // Clone the method, so we can modify it
+                final CtMethod method = CtNewMethod.copy(intfMethod, targetCt, null);
+
+                String modifiedBody = methodBody;
+
+                // If the super-Proxy has concrete methods (non-abstract), transform the call into a simple super.method() call
+                final CtMethod superMethod = superCt.getMethod(intfMethod.getName(), intfMethod.getSignature());
+                if ((superMethod.getModifiers() & Modifier.ABSTRACT) != Modifier.ABSTRACT && !isDefaultMethod(intf, intfMethod)) {
+                    modifiedBody = modifiedBody.replace("((cast) ", "");
+                    modifiedBody = modifiedBody.replace("delegate", "super");
+                    modifiedBody = modifiedBody.replace("super)", "super");
+                    modifiedBody = modifiedBody.replace("applyPendingReset(); ", ""); // the super-Proxy decides for itself
+                }
+
+                modifiedBody = modifiedBody.replace("cast", primaryInterface.getName());
+
+                // Generate a method that simply invokes the same method on the delegate
+                if (isThrowsSqlException(intfMethod)) {
+                    modifiedBody = modifiedBody.replace("method", method.getName());
+                }
+                else {
+                    modifiedBody = "{ return ((cast) delegate).method($$); }".replace("method", method.getName()).replace("cast", primaryInterface.getName());
+                }
+
+                if (method.getReturnType() == CtClass.voidType) {
+                    modifiedBody = modifiedBody.replace("return", "");
+                }
+
+                method.setBody(modifiedBody);
+                targetCt.addMethod(method);
+            }
+        }
+
+        targetCt.getClassFile().setMajorVersion(ClassFile.JAVA_8);
+        targetCt.writeFile(genDirectory);
+    }
+
+    private static boolean isThrowsSqlException(CtMethod method) {
+        try {
+            for (CtClass clazz : method.getExceptionTypes()) {
+                if (clazz.getSimpleName().equals("SQLException")) {
+                    return true;
+                }
+            }
+        }
+        catch (NotFoundException e) {
+            // fall thru
+        }
+
+        return false;
+    }
+
+    private static boolean isDefaultMethod(Class<?> intf, CtMethod intfMethod) throws Exception {
+        final List<Class<?>> paramTypes = new ArrayList<>();
+        for (CtClass pt : intfMethod.getParameterTypes()) {
+            paramTypes.add(toJavaClass(pt));
+        }
+
+        return intf.getDeclaredMethod(intfMethod.getName(), paramTypes.toArray(new Class<?>[0])).isDefault();
+    }
+
+    private static Set<Class<?>> getAllInterfaces(Class<?> clazz) {
+        final Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> intf : clazz.getInterfaces()) {
+            if (intf.getInterfaces().length > 0) {
+                interfaces.addAll(getAllInterfaces(intf));
+            }
+            interfaces.add(intf);
+        }
+        if (clazz.getSuperclass() != null) {
+            interfaces.addAll(getAllInterfaces(clazz.getSuperclass()));
+        }
+
+        if (clazz.isInterface()) {
+            interfaces.add(clazz);
+        }
+
+        return interfaces;
+    }
+
+    private static Class<?> toJavaClass(CtClass cls) throws Exception {
+        if (cls.getName().endsWith("[]")) {
+            return Array.newInstance(toJavaClass(cls.getName().replace("[]", "")), 0).getClass();
+        }
+        else {
+            return toJavaClass(cls.getName());
+        }
+    }
+
+    private static Class<?> toJavaClass(String cn) throws Exception {
+        switch (cn) {
+            case "int":
+                return int.class;
+            case "long":
+                return long.class;
+            case "short":
+                return short.class;
+            case "byte":
+                return byte.class;
+            case "float":
+                return float.class;
+            case "double":
+                return double.class;
+            case "boolean":
+                return boolean.class;
+            case "char":
+                return char.class;
+            case "void":
+                return void.class;
+            default:
+                return Class.forName(cn);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.nhn.test.util;
+
+import java.util.regex.Pattern;
+
+/**
+ * Reduces SQL to a fingerprint shared by all executions of the same statement shape: string and numeric literals
+ * become {@code ?}, lists of placeholders such as {@code IN (?, ?, ?)} become {@code (?+)}, comments are dropped and
+ * whitespace is collapsed.  Quoted identifiers are kept as written.
+ */
+public final class SqlFingerprint {
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\( ?\\?(?: ?, ?\\?)+ ?\\)");
+
+    private SqlFingerprint() {
+        // utility class
+    }
+
+    public static String of(final String sql) {
+        final int n = sql.length();
+        final StringBuilder sb = new StringBuilder(n);
+        boolean space = false;
+        for (int i = 0; i < n; i++) {
+            final char c = sql.charAt(i);
+            final char next = i + 1 < n ? sql.charAt(i + 1) : 0;
+
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (c == '-' && next == '-') {
+                while (i < n && sql.charAt(i) != '\n') {
+                    i++;
+                }
+                space = true;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                final int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 1;
+                space = true;
+                continue;
+            }
+
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+
+            if (c == '\'') {
+                i = skipQuoted(sql, i, '\'');
+                sb.append('?');
+            }
+            else if (c == '"' || c == '`') {
+                final int end = skipQuoted(sql, i, c);
+                sb.append(sql, i, Math.min(end + 1, n));
+                i = end;
+            }
+            else if (isNumberStart(sql, i, c) || (c == '-' && isNumberStart(sql, i + 1, next) && isOperand(sb))) {
+                while (i + 1 < n && isNumberPart(sql.charAt(i + 1))) {
+                    i++;
+                }
+                sb.append('?');
+            }
+            else {
+                sb.append(c);
+            }
+        }
+
+        return PLACEHOLDER_LIST.matcher(sb).replaceAll("(?+)");
+    }
+
+    // index of the closing quote, with doubled quotes as escapes
+    private static int skipQuoted(final String sql, int i, final char quote) {
+        final int n = sql.length();
+        for (i++; i < n; i++) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < n && sql.charAt(i + 1) == quote) {
+                    i++;
+                }
+                else {
+                    return i;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static boolean isNumberStart(final String sql, final int i, final char c) {
+        if (!Character.isDigit(c) && !(c == '.' && i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1)))) {
+            return false;
+        }
+        // not part of an identifier such as t1 or a placeholder such as $1
+        return i == 0 || !(Character.isLetterOrDigit(sql.charAt(i - 1)) || sql.charAt(i - 1) == '_' || sql.charAt(i - 1) == '$');
+    }
+
+    // a minus after an operator, or at the start, is the sign of a literal
+    private static boolean isOperand(final StringBuilder sb) {
+        int i = sb.length() - 1;
+        if (i >= 0 && sb.charAt(i) == ' ') {
+            i--;
+        }
+        return i < 0 || "=<>(,+-*/".indexOf(sb.charAt(i)) >= 0;
+    }
+
+    private static boolean isNumberPart(final char c) {
+        return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E' || c == 'x' || c == 'X'
+                || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -2,16 +2,36 @@ package com.nhn.test.util;
 
 import java.sql.SQLException;
 import java.sql.SQLTransientException;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+
+/**
+ * Gate for connection acquisition while the pool is suspended.  In-flight acquisitions are counted in a striped,
+ * padded counter indexed by thread, so while the pool is not suspended {@link #acquire()} is a volatile read plus an
+ * increment of a cell that is rarely shared.  {@link #suspend()} raises the flag and then waits for the sum of the
+ * cells to drain to zero.  Asynchronous acquisitions use {@link #tryAcquire()} and {@link #whenResumed()} instead of
+ * blocking, and are released by cell from whichever thread completes them.
+ */
 public class SuspendResumeLock {
     public static final SuspendResumeLock FAUX_LOCK = new SuspendResumeLock(false) {
         @Override
         public void acquire() {}
 
+        @Override
+        public int tryAcquire() {
+            return 0;
+        }
+
         @Override
         public void release() {}
 
+        @Override
+        public void release(final int cell) {}
+
         @Override
         public void suspend() {}
 
@@ -19,37 +39,136 @@ public class SuspendResumeLock {
         public void resume() {}
     };
 
-    private static final int MAX_PERMITS = 10000;
-    private final Semaphore acquisitionSemaphore;
+    // 16 longs = 128 bytes between used cells, so two stripes never share a cache line (or an adjacent-line prefetch)
+    private static final int PAD = 16;
+    private static final int MAX_STRIPES = 64;
+
+    private final AtomicLongArray inFlight;
+    private final int stripeMask;
+
+    private volatile boolean suspended;
+    private volatile CountDownLatch resumeLatch;
+    private volatile CompletableFuture<Void> resumed;
 
     public SuspendResumeLock() {
         this(true);
     }
 
-    private SuspendResumeLock(final boolean createSemaphore) {
-        acquisitionSemaphore = (createSemaphore ? new Semaphore(MAX_PERMITS, true) : null);
+    private SuspendResumeLock(final boolean createCounters) {
+        final int stripes = createCounters ? stripeCount() : 1;
+        this.stripeMask = stripes - 1;
+        this.inFlight = createCounters ? new AtomicLongArray(stripes * PAD) : null;
+        this.resumeLatch = new CountDownLatch(0);
+        this.resumed = CompletableFuture.completedFuture(null);
     }
 
     public void acquire() throws SQLException {
-        if (acquisitionSemaphore.tryAcquire()) {
-            return;
+        final int cell = cell();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (!suspended) {
+                    inFlight.incrementAndGet(cell);
+                    // re-check after publishing the increment; suspend() writes the flag before it sums the cells,
+                    // so either it sees this acquisition or we see its flag
+                    if (!suspended) {
+                        return;
+                    }
+                    inFlight.decrementAndGet(cell);
+                }
+
+                if (Boolean.getBoolean("com.zaxxer.hikari.throwIfSuspended")) {
+                    throw new SQLTransientException("The pool is currently suspended and configured to throw exceptions upon acquisition");
+                }
+
+                final CountDownLatch latch = resumeLatch;
+                if (suspended) {
+                    try {
+                        latch.await();
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Acquire without blocking.
+     *
+     * @return the cell to pass to {@link #release(int)}, or -1 if suspended; see {@link #whenResumed()}
+     */
+    public int tryAcquire() throws SQLException {
+        if (!suspended) {
+            final int cell = cell();
+            inFlight.incrementAndGet(cell);
+            if (!suspended) {
+                return cell;
+            }
+            inFlight.decrementAndGet(cell);
         }
-        else if (Boolean.getBoolean("com.zaxxer.hikari.throwIfSuspended")) {
+
+        if (Boolean.getBoolean("com.zaxxer.hikari.throwIfSuspended")) {
             throw new SQLTransientException("The pool is currently suspended and configured to throw exceptions upon acquisition");
         }
+        return -1;
+    }
 
-        acquisitionSemaphore.acquireUninterruptibly();
+    /**
+     * @return a future completed when the pool is next resumed, or already complete if it is not suspended
+     */
+    public CompletableFuture<Void> whenResumed() {
+        return resumed;
     }
 
     public void release() {
-        acquisitionSemaphore.release();
+        inFlight.decrementAndGet(cell());
+    }
+
+    public void release(final int cell) {
+        inFlight.decrementAndGet(cell);
     }
 
     public void suspend() {
-        acquisitionSemaphore.acquireUninterruptibly(MAX_PERMITS);
+        resumeLatch = new CountDownLatch(1);
+        resumed = new CompletableFuture<>();
+        suspended = true;
+
+        long backoff = MICROSECONDS.toNanos(10);
+        while (inFlightCount() > 0) {
+            parkNanos(backoff);
+            backoff = Math.min(backoff * 2, MICROSECONDS.toNanos(1000));
+        }
     }
 
     public void resume() {
-        acquisitionSemaphore.release(MAX_PERMITS);
+        suspended = false;
+        resumeLatch.countDown();
+        resumed.complete(null);
+    }
+
+    long inFlightCount() {
+        long sum = 0;
+        for (int i = 0; i <= stripeMask; i++) {
+            sum += inFlight.get(i * PAD);
+        }
+        return sum;
+    }
+
+    // A thread always maps to the same cell, so its release() decrements what its acquire() incremented
+    private int cell() {
+        final long id = Thread.currentThread().getId();
+        return ((int) ((id * 0x9E3779B97F4A7C15L) >>> 40) & stripeMask) * PAD;
+    }
+
+    private static int stripeCount() {
+        final int cores = Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors());
+        return cores <= 1 ? 1 : Integer.highestOneBit(cores - 1) << 1;
     }
 }
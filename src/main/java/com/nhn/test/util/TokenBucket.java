@@ -0,0 +1,73 @@
+package com.nhn.test.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+
+/**
+ * Token bucket rate limiter holding up to one second's worth of tokens, refilled continuously at
+ * {@code permitsPerSecond}.  Instead of a token count it keeps the time at which the bucket will next be empty,
+ * so acquiring is a single CAS.  A rate of 0 disables the limiter.
+ */
+public final class TokenBucket {
+    private final long nanosPerPermit;
+    private final long burstNanos;
+
+    // the bucket holds (now - emptyAt) / nanosPerPermit tokens, capped at the burst size
+    private final AtomicLong emptyAt;
+
+    public TokenBucket(final int permitsPerSecond) {
+        this.nanosPerPermit = permitsPerSecond > 0 ? SECONDS.toNanos(1) / permitsPerSecond : 0L;
+        this.burstNanos = SECONDS.toNanos(1);
+        this.emptyAt = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Take a token, waiting (uninterruptibly) until one is available.
+     */
+    public void acquire() {
+        if (nanosPerPermit == 0L) {
+            return;
+        }
+
+        long wait;
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = emptyAt.get();
+            final long start = Math.max(current, now - burstNanos);
+            if (emptyAt.compareAndSet(current, start + nanosPerPermit)) {
+                wait = start + nanosPerPermit - now;
+                break;
+            }
+        }
+
+        // the token is ours once the bucket has refilled up to it
+        while (wait > 0) {
+            final long parkStart = System.nanoTime();
+            parkNanos(wait);
+            wait -= System.nanoTime() - parkStart;
+        }
+    }
+
+    /**
+     * @return true if a token was available and taken
+     */
+    public boolean tryAcquire() {
+        if (nanosPerPermit == 0L) {
+            return true;
+        }
+
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = emptyAt.get();
+            final long start = Math.max(current, now - burstNanos);
+            if (start + nanosPerPermit > now) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(current, start + nanosPerPermit)) {
+                return true;
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.nhn.test.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.util.Locale;
 import java.util.concurrent.*;
@@ -8,6 +11,7 @@ import static java.lang.Thread.currentThread;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 public final class UtilityElf {
+    private static final MethodHandle IS_VIRTUAL = lookupIsVirtual();
 
     public static String getNullIfEmpty(final String text) {
         return text == null ? null : text.trim().isEmpty() ? null : text.trim();
@@ -32,6 +36,22 @@ public final class UtilityElf {
         }
     }
 
+    /**
+     * @return true if the thread is a virtual thread; always false before Java 21
+     */
+    public static boolean isVirtualThread(final Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(thread);
+        }
+        catch (Throwable e) {
+            return false;
+        }
+    }
+
     public static <T> T createInstance(final String className, final Class<T> clazz, final Object... args) {
         if (className == null) {
             return null;
@@ -120,4 +140,13 @@ public final class UtilityElf {
             return thread;
         }
     }
+
+    private static MethodHandle lookupIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
 }
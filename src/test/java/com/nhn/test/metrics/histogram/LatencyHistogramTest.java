@@ -0,0 +1,49 @@
+package com.nhn.test.metrics.histogram;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketsCoverEveryValue() {
+        for (long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1_000, 123_456_789, Long.MAX_VALUE }) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value + " below its bucket", LatencyHistogram.bucketLowerBound(index) <= value);
+            assertTrue(value + " above its bucket", LatencyHistogram.bucketUpperBound(index) >= value);
+            assertTrue("bucket too wide for " + value,
+                    LatencyHistogram.bucketUpperBound(index) - LatencyHistogram.bucketLowerBound(index) <= Math.max(0, value / 16));
+        }
+    }
+
+    @Test
+    public void testPercentilesUnderConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            executor.execute(() -> {
+                for (int i = 1; i <= 10_000; i++) {
+                    histogram.record(i);
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, SECONDS));
+        executor.shutdown();
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40_000, snapshot.getCount());
+        assertEquals(10_000, snapshot.getMax());
+        assertEquals(5_000.5, snapshot.getMean(), 0.001);
+        assertEquals(5_000, snapshot.getValueAtPercentile(50), 5_000 / 16);
+        assertEquals(9_900, snapshot.getValueAtPercentile(99), 9_900 / 16);
+        assertEquals(10_000, snapshot.getValueAtPercentile(100));
+        assertEquals(4 * 15, snapshot.getCountAtOrBelow(15));
+    }
+}
@@ -0,0 +1,65 @@
+package com.nhn.test.metrics.prometheus;
+
+import com.nhn.test.TestConfig;
+import com.nhn.test.TestDataSource;
+import com.nhn.test.metrics.histogram.HistogramMetricsTrackerFactory;
+import com.nhn.test.mocks.StubDataSource;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+
+import static org.junit.Assert.*;
+
+public class PrometheusExporterTest {
+    @Test
+    public void testScrape() throws Exception {
+        final TestConfig config = new TestConfig();
+        config.setPoolName("prom\"pool");
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(2);
+        config.setMetricsTrackerFactory(new HistogramMetricsTrackerFactory());
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config);
+             PrometheusExporter exporter = new PrometheusExporter(new InetSocketAddress("127.0.0.1", 0)).register(ds)) {
+            try (Connection connection = ds.getConnection()) {
+                ds.evictConnection(connection);
+            }
+            try (Connection connection = ds.getTaggedConnection("report")) {
+                assertFalse(connection.isClosed());
+            }
+            try (Connection connection = ds.getTaggedConnection("(batch)")) {
+                assertFalse(connection.isClosed());
+            }
+
+            final HttpURLConnection http = (HttpURLConnection) new URL("http://127.0.0.1:" + exporter.getPort() + "/metrics").openConnection();
+            assertEquals(200, http.getResponseCode());
+            assertTrue(http.getContentType().startsWith("text/plain; version=0.0.4"));
+            final String body;
+            try (InputStream in = http.getInputStream()) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    out.write(buffer, 0, n);
+                }
+                body = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+
+            assertTrue(body, body.contains("# TYPE testcp_connections gauge\n"));
+            assertTrue(body, body.contains("testcp_connections{pool=\"prom\\\"pool\",state=\"active\"} 0\n"));
+            assertTrue(body, body.contains("testcp_bag_entries{pool=\"prom\\\"pool\",state=\"in_use\"} 0\n"));
+            assertTrue(body, body.contains("testcp_connections_closed_total{pool=\"prom\\\"pool\",reason=\"connection evicted by user\"} 1\n"));
+            assertTrue(body, body.contains("testcp_connection_acquire_seconds_count{pool=\"prom\\\"pool\"} 3\n"));
+            assertTrue(body, body.contains("testcp_connection_holds_total{pool=\"prom\\\"pool\",site=\"report\"} 1.0\n"));
+            assertTrue(body, body.contains("testcp_connection_holds_total{pool=\"prom\\\"pool\",site=\"(batch)\"} 1.0\n"));
+            assertTrue(body, body.contains("testcp_connection_acquire_seconds{pool=\"prom\\\"pool\",quantile=\"0.99\"} "));
+            assertTrue(exporter.scrape().startsWith("# HELP testcp_connections Connections in the pool by state.\n"));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.nhn.test.mocks;
+
+import com.nhn.test.util.ConcurrentBag.IConcurrentBagEntry;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+public class StubBagEntry implements IConcurrentBagEntry
+{
+    private static final AtomicIntegerFieldUpdater<StubBagEntry> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(StubBagEntry.class, "state");
+
+    private volatile int state;
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean compareAndSet(int expect, int update)
+    {
+        return stateUpdater.compareAndSet(this, expect, update);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setState(int update)
+    {
+        stateUpdater.set(this, update);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getState()
+    {
+        return stateUpdater.get(this);
+    }
+}
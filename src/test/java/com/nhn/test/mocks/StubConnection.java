@@ -18,6 +18,8 @@ public class StubConnection extends StubBaseConnection implements Connection
     private boolean autoCommit;
     private int isolation = Connection.TRANSACTION_READ_COMMITTED;
     private String catalog;
+    private String schema;
+    private int networkTimeout;
 
     static {
         foo = System.currentTimeMillis();
@@ -420,12 +422,13 @@ public class StubConnection extends StubBaseConnection implements Connection
     /** {@inheritDoc} */
     public void setSchema(String schema) throws SQLException
     {
+        this.schema = schema;
     }
 
     /** {@inheritDoc} */
     public String getSchema() throws SQLException
     {
-        return null;
+        return schema;
     }
 
     /** {@inheritDoc} */
@@ -437,6 +440,7 @@ public class StubConnection extends StubBaseConnection implements Connection
     /** {@inheritDoc} */
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException
     {
+        networkTimeout = milliseconds;
     }
 
     /** {@inheritDoc} */
@@ -446,7 +450,7 @@ public class StubConnection extends StubBaseConnection implements Connection
             throw new AbstractMethodError();
         }
 
-        return 0;
+        return networkTimeout;
     }
 
 }
@@ -1,12 +1,12 @@
 package com.nhn.test.mocks;
 
-import com.nhn.test.util.UtilityElf;
-
 import javax.sql.DataSource;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
 
 public class StubDataSource implements DataSource
@@ -15,7 +15,8 @@ public class StubDataSource implements DataSource
     private String password;
     private PrintWriter logWriter;
     private SQLException throwException;
-    private long connectionAcquistionTime = 0;
+    private volatile StubLatency connectLatency = StubLatency.NONE;
+    private volatile double connectFailureRate;
     private int loginTimeout;
 
     public String getUser()
@@ -103,8 +104,12 @@ public class StubDataSource implements DataSource
         if (throwException != null) {
             throw throwException;
         }
-        if (connectionAcquistionTime > 0) {
-            UtilityElf.quietlySleep(connectionAcquistionTime);
+
+        connectLatency.simulate();
+
+        final double failureRate = connectFailureRate;
+        if (failureRate > 0.0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new SQLTransientConnectionException("Simulated connection failure", "08001");
         }
 
         return new StubConnection();
@@ -123,6 +128,24 @@ public class StubDataSource implements DataSource
     }
 
     public void setConnectionAcquistionTime(long connectionAcquisitionTime) {
-        this.connectionAcquistionTime = connectionAcquisitionTime;
+        this.connectLatency = StubLatency.fixed(connectionAcquisitionTime);
+    }
+
+    public void setConnectLatency(StubLatency connectLatency)
+    {
+        this.connectLatency = connectLatency;
+    }
+
+    public StubLatency getConnectLatency()
+    {
+        return connectLatency;
+    }
+
+    /**
+     * @param connectFailureRate fraction (0.0 - 1.0) of getConnection() calls that fail with SQLSTATE 08001
+     */
+    public void setConnectFailureRate(double connectFailureRate)
+    {
+        this.connectFailureRate = connectFailureRate;
     }
 }
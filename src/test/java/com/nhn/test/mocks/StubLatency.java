@@ -0,0 +1,127 @@
+package com.nhn.test.mocks;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+
+/**
+ * A latency distribution used by the stub driver to simulate connection setup and query round trips.
+ *
+ * Specifications accepted by {@link #parse(String)}:
+ * <ul>
+ *   <li>{@code 0} or empty - no latency</li>
+ *   <li>{@code 15} - fixed 15ms</li>
+ *   <li>{@code 1-50} - uniform between 1ms and 50ms</li>
+ *   <li>{@code exp:2:10:200} - minimum 2ms plus an exponential tail with mean 10ms, capped at 200ms</li>
+ * </ul>
+ */
+public abstract class StubLatency
+{
+    public static final StubLatency NONE = new StubLatency("0") {
+        @Override
+        public long nextNanos()
+        {
+            return 0L;
+        }
+    };
+
+    private final String spec;
+
+    private StubLatency(final String spec)
+    {
+        this.spec = spec;
+    }
+
+    public static StubLatency fixed(final long millis)
+    {
+        if (millis <= 0) {
+            return NONE;
+        }
+
+        final long nanos = MILLISECONDS.toNanos(millis);
+        return new StubLatency(String.valueOf(millis)) {
+            @Override
+            public long nextNanos()
+            {
+                return nanos;
+            }
+        };
+    }
+
+    public static StubLatency uniform(final long minMillis, final long maxMillis)
+    {
+        final long minNanos = MILLISECONDS.toNanos(minMillis);
+        final long maxNanos = MILLISECONDS.toNanos(maxMillis);
+        return new StubLatency(minMillis + "-" + maxMillis) {
+            @Override
+            public long nextNanos()
+            {
+                return ThreadLocalRandom.current().nextLong(minNanos, maxNanos + 1);
+            }
+        };
+    }
+
+    public static StubLatency exponential(final long minMillis, final long meanMillis, final long maxMillis)
+    {
+        final long minNanos = MILLISECONDS.toNanos(minMillis);
+        final double meanNanos = MILLISECONDS.toNanos(meanMillis);
+        final long maxNanos = MILLISECONDS.toNanos(maxMillis);
+        return new StubLatency("exp:" + minMillis + ":" + meanMillis + ":" + maxMillis) {
+            @Override
+            public long nextNanos()
+            {
+                final double tail = -meanNanos * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+                return Math.min(maxNanos, minNanos + (long) tail);
+            }
+        };
+    }
+
+    public static StubLatency parse(final String spec)
+    {
+        if (spec == null || spec.trim().isEmpty()) {
+            return NONE;
+        }
+
+        final String s = spec.trim();
+        if (s.startsWith("exp:")) {
+            final String[] parts = s.substring(4).split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Expected exp:<min>:<mean>:<max>, got " + spec);
+            }
+            return exponential(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        }
+
+        final int dash = s.indexOf('-');
+        if (dash > 0) {
+            return uniform(Long.parseLong(s.substring(0, dash)), Long.parseLong(s.substring(dash + 1)));
+        }
+
+        return fixed(Long.parseLong(s));
+    }
+
+    /**
+     * @return the next latency sample in nanoseconds
+     */
+    public abstract long nextNanos();
+
+    /**
+     * Block the calling thread for the next latency sample.
+     */
+    public void simulate()
+    {
+        final long nanos = nextNanos();
+        if (nanos > 0) {
+            final long deadline = System.nanoTime() + nanos;
+            for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+                parkNanos(remaining);
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+}
@@ -30,6 +30,11 @@ import java.util.Calendar;
 @SuppressWarnings("RedundantThrows")
 public class StubPreparedStatement extends StubStatement implements PreparedStatement
 {
+    private int batchSize;
+    private int maxRows;
+    private int queryTimeout;
+    private int fetchSize = 10;
+
     StubPreparedStatement(Connection connection)
     {
         super(connection);
@@ -39,6 +44,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public ResultSet executeQuery(String sql) throws SQLException
     {
+        simulateQuery();
         return new StubResultSet();
     }
 
@@ -46,6 +52,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int executeUpdate(String sql) throws SQLException
     {
+        simulateQuery();
         return 0;
     }
 
@@ -66,13 +73,14 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int getMaxRows() throws SQLException
     {
-        return 0;
+        return maxRows;
     }
 
     /** {@inheritDoc} */
     @Override
     public void setMaxRows(int max) throws SQLException
     {
+        maxRows = max;
     }
 
     /** {@inheritDoc} */
@@ -85,13 +93,14 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int getQueryTimeout() throws SQLException
     {
-        return 0;
+        return queryTimeout;
     }
 
     /** {@inheritDoc} */
     @Override
     public void setQueryTimeout(int seconds) throws SQLException
     {
+        queryTimeout = seconds;
     }
 
     /** {@inheritDoc} */
@@ -123,6 +132,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public boolean execute(String sql) throws SQLException
     {
+        simulateQuery();
         return false;
     }
 
@@ -168,13 +178,14 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public void setFetchSize(int rows) throws SQLException
     {
+        fetchSize = rows;
     }
 
     /** {@inheritDoc} */
     @Override
     public int getFetchSize() throws SQLException
     {
-        return 0;
+        return fetchSize;
     }
 
     /** {@inheritDoc} */
@@ -195,19 +206,29 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public void addBatch(String sql) throws SQLException
     {
+        batchSize++;
     }
 
     /** {@inheritDoc} */
     @Override
     public void clearBatch() throws SQLException
     {
+        batchSize = 0;
     }
 
     /** {@inheritDoc} */
     @Override
     public int[] executeBatch() throws SQLException
     {
-        return null;
+        simulateQuery();
+        final int[] counts = new int[batchSize];
+        batchSize = 0;
+        return counts;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
     }
 
     /** {@inheritDoc} */
@@ -228,6 +249,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException
     {
+        simulateQuery();
         return 0;
     }
 
@@ -235,6 +257,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException
     {
+        simulateQuery();
         return 0;
     }
 
@@ -242,6 +265,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int executeUpdate(String sql, String[] columnNames) throws SQLException
     {
+        simulateQuery();
         return 0;
     }
 
@@ -249,6 +273,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException
     {
+        simulateQuery();
         return false;
     }
 
@@ -256,6 +281,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException
     {
+        simulateQuery();
         return false;
     }
 
@@ -263,6 +289,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException
     {
+        simulateQuery();
         return false;
     }
 
@@ -322,6 +349,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public ResultSet executeQuery() throws SQLException
     {
+        simulateQuery();
         return new StubResultSet();
     }
 
@@ -329,6 +357,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public int executeUpdate() throws SQLException
     {
+        simulateQuery();
         return 0;
     }
 
@@ -457,6 +486,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public boolean execute() throws SQLException
     {
+        simulateQuery();
         return false;
     }
 
@@ -464,6 +494,7 @@ public class StubPreparedStatement extends StubStatement implements PreparedStat
     @Override
     public void addBatch() throws SQLException
     {
+        batchSize++;
     }
 
     /** {@inheritDoc} */
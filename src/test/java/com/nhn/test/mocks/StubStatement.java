@@ -1,18 +1,19 @@
 package com.nhn.test.mocks;
 
-import static com.nhn.test.util.UtilityElf.quietlySleep;
-
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class StubStatement implements Statement {
     public static volatile boolean oldDriver;
 
-    private static volatile long simulatedQueryTime;
+    private static volatile StubLatency simulatedQueryLatency = StubLatency.NONE;
+    private static volatile double queryFailureRate;
+    private static volatile String queryFailureSqlState = "08S01";
     private boolean closed;
     private Connection connection;
 
@@ -21,7 +22,29 @@ public class StubStatement implements Statement {
     }
 
     public static void setSimulatedQueryTime(long time) {
-        simulatedQueryTime = time;
+        simulatedQueryLatency = StubLatency.fixed(time);
+    }
+
+    public static void setSimulatedQueryLatency(StubLatency latency) {
+        simulatedQueryLatency = latency;
+    }
+
+    /**
+     * @param rate fraction (0.0 - 1.0) of executions that fail
+     * @param sqlState the SQLSTATE of the injected failure, "08xxx" states cause the pool to evict the connection
+     */
+    public static void setQueryFailure(double rate, String sqlState) {
+        queryFailureRate = rate;
+        queryFailureSqlState = sqlState;
+    }
+
+    static void simulateQuery() throws SQLException {
+        simulatedQueryLatency.simulate();
+
+        final double failureRate = queryFailureRate;
+        if (failureRate > 0.0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new SQLException("Simulated query failure", queryFailureSqlState);
+        }
     }
 
     /** {@inheritDoc} */
@@ -46,6 +69,7 @@ public class StubStatement implements Statement {
     public ResultSet executeQuery(String sql) throws SQLException
     {
         checkClosed();
+        simulateQuery();
         StubResultSet resultSet = new StubResultSet();
         return resultSet;
     }
@@ -55,6 +79,7 @@ public class StubStatement implements Statement {
     public int executeUpdate(String sql) throws SQLException
     {
         checkClosed();
+        simulateQuery();
         return 0;
     }
 
@@ -155,9 +180,7 @@ public class StubStatement implements Statement {
     public boolean execute(String sql) throws SQLException
     {
         checkClosed();
-        if (simulatedQueryTime > 0) {
-            quietlySleep(simulatedQueryTime);
-        }
+        simulateQuery();
         return false;
     }
 
@@ -250,6 +273,7 @@ public class StubStatement implements Statement {
     public int[] executeBatch() throws SQLException
     {
         checkClosed();
+        simulateQuery();
         return null;
     }
 
@@ -282,6 +306,7 @@ public class StubStatement implements Statement {
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException
     {
         checkClosed();
+        simulateQuery();
         return 0;
     }
 
@@ -290,6 +315,7 @@ public class StubStatement implements Statement {
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException
     {
         checkClosed();
+        simulateQuery();
         return 0;
     }
 
@@ -298,6 +324,7 @@ public class StubStatement implements Statement {
     public int executeUpdate(String sql, String[] columnNames) throws SQLException
     {
         checkClosed();
+        simulateQuery();
         return 0;
     }
 
@@ -305,18 +332,21 @@ public class StubStatement implements Statement {
     @Override
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
         checkClosed();
+        simulateQuery();
         return false;
     }
 
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException {
         checkClosed();
+        simulateQuery();
         return false;
     }
 
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException {
         checkClosed();
+        simulateQuery();
         return false;
     }
 
@@ -0,0 +1,43 @@
+package com.nhn.test.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest
+{
+    @Test
+    public void testWaiterCap()
+    {
+        final AdmissionController controller = new AdmissionController(2, false);
+        assertNull(controller.admit(0, 1000, false));
+        assertNull(controller.admit(1, 1000, false));
+        assertNotNull(controller.admit(2, 1000, false));
+        assertEquals(1, controller.getRejectedCount());
+    }
+
+    @Test
+    public void testLoadSheddingFromReturnRate() throws InterruptedException
+    {
+        final AdmissionController controller = new AdmissionController(0, true);
+
+        // nothing returned yet, no basis for an estimate
+        assertNull(controller.admit(1000, 10, false));
+
+        for (int i = 0; i < 10; i++) {
+            controller.recordRelease();
+        }
+        Thread.sleep(1050);
+
+        // about 10 returns per second: the 101st in line waits ~10s, the first ~100ms
+        final String rejection = controller.admit(100, 1000, false);
+        assertNotNull(rejection);
+        assertTrue(rejection, rejection.startsWith("expected wait"));
+        assertNull(controller.admit(0, 1000, false));
+        assertEquals(1, controller.getRejectedCount());
+
+        // a pool that can still grow is not shed from, only capped
+        assertNull(controller.admit(100, 1000, true));
+        assertEquals(1, controller.getRejectedCount());
+    }
+}
@@ -0,0 +1,86 @@
+package com.nhn.test.pool;
+
+import com.nhn.test.TestConfig;
+import com.nhn.test.TestDataSource;
+import com.nhn.test.mocks.StubDataSource;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nhn.test.pool.TestElf.newTestConfig;
+import static org.junit.Assert.*;
+
+public class PoolEventsTest
+{
+    @Test
+    public void testLifecycleEvents() throws Exception
+    {
+        assertTrue(PoolEvents.ENABLED);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(0);
+        config.setMaximumPoolSize(1);
+        config.setPoolName("jfr");
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        final Path file = Files.createTempFile("testcp", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.nhn.test.ConnectionBorrow");
+            recording.enable("com.nhn.test.ConnectionReturn");
+            recording.enable("com.nhn.test.ConnectionCreate");
+            recording.enable("com.nhn.test.ConnectionClose");
+            recording.start();
+
+            try (TestDataSource ds = new TestDataSource(config)) {
+                final Connection connection = ds.getConnection();
+                connection.setAutoCommit(false);
+                connection.close();
+                ds.evictConnection(connection);
+            }
+
+            recording.stop();
+            recording.dump(file);
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            final RecordedEvent borrow = only(events, "com.nhn.test.ConnectionBorrow");
+            assertEquals("jfr", borrow.getString("pool"));
+            assertTrue(borrow.getBoolean("success"));
+
+            final RecordedEvent returned = only(events, "com.nhn.test.ConnectionReturn");
+            assertEquals("autoCommit", returned.getString("resetState"));
+
+            final List<RecordedEvent> creates = all(events, "com.nhn.test.ConnectionCreate");
+            assertFalse(creates.isEmpty());
+            creates.forEach(create -> assertTrue(create.getBoolean("success")));
+            assertEquals("(connection evicted by user)", only(events, "com.nhn.test.ConnectionClose").getString("reason"));
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static RecordedEvent only(final List<RecordedEvent> events, final String name)
+    {
+        final List<RecordedEvent> found = all(events, name);
+        assertEquals(name, 1, found.size());
+        return found.get(0);
+    }
+
+    private static List<RecordedEvent> all(final List<RecordedEvent> events, final String name)
+    {
+        final List<RecordedEvent> found = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                found.add(event);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,99 @@
+package com.nhn.test.pool;
+
+import com.nhn.test.TestConfig;
+import com.nhn.test.TestDataSource;
+import com.nhn.test.mocks.StubDataSource;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.Statement;
+
+import static com.nhn.test.pool.TestElf.getPool;
+import static com.nhn.test.pool.TestElf.newTestConfig;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PoolSizeControllerTest
+{
+    private static final long PERIOD = SECONDS.toNanos(1);
+
+    @Test
+    public void testGrowthIsCappedPerPeriod()
+    {
+        final PoolSizeController controller = new PoolSizeController(4, 2, 5);
+
+        // ten waiting threads, but at most two more connections per period
+        assertEquals(6, controller.resize(2, 20, 4, 10, 0, 0, 0, PERIOD));
+        assertEquals(8, controller.resize(2, 20, 6, 10, 0, 0, 0, PERIOD));
+        assertTrue(controller.getLastDecision().startsWith("grow 6->8"));
+
+        // no waiters, but borrows waited 20ms on average: additive increase by one
+        assertEquals(9, controller.resize(2, 20, 8, 0, 100, 100 * MILLISECONDS.toNanos(20), 0, PERIOD));
+
+        // never beyond maximumPoolSize
+        assertEquals(10, controller.resize(2, 10, 9, 5, 0, 0, 0, PERIOD));
+        assertEquals(10, controller.resize(2, 10, 10, 5, 0, 0, 0, PERIOD));
+    }
+
+    @Test
+    public void testShrinkTowardsLittlesLawDemand()
+    {
+        final PoolSizeController controller = new PoolSizeController(20, 2, 5);
+
+        // 2.4 connections busy on average (2.4s of hold time per second): target ceil(2.4 * 1.25) = 3
+        final long held = MILLISECONDS.toNanos(2400);
+        assertEquals(15, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(12, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(9, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(7, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(6, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(5, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(4, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(3, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+        assertEquals(3, controller.resize(2, 20, 1, 0, 1000, 0, held, PERIOD));
+
+        // never below the active connections plus one, nor below minimumIdle
+        assertEquals(3, controller.resize(3, 20, 0, 0, 0, 0, 0, PERIOD));
+        assertEquals(3, controller.resize(1, 20, 2, 0, 0, 0, 0, PERIOD));
+        assertEquals(2, controller.resize(1, 20, 0, 0, 0, 0, 0, PERIOD));
+        assertTrue(controller.getLastDecision().startsWith("shrink 3->2"));
+    }
+
+    @Test
+    public void testHoldTimeRunsUntilRelease() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(2);
+        config.setAdaptivePoolSizing(true);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        // keep the housekeeper from sampling; the test drives the controller itself
+        System.setProperty("com.nhn.test.adaptiveSizing.periodMs", "3600000");
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final Field field = TestPool.class.getDeclaredField("sizeController");
+            field.setAccessible(true);
+            final PoolSizeController controller = (PoolSizeController) field.get(getPool(ds));
+
+            // start a fresh period without changing the size
+            assertEquals(2, controller.sample(1, 2, 2, 0));
+
+            try (Connection connection = ds.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("SELECT 1");
+                // idle after the last statement, e.g. rendering a response
+                Thread.sleep(500);
+            }
+
+            // one connection held for the whole period: demand ~1, target ceil(1 * 1.25) = 2, so no shrink
+            assertEquals(2, controller.sample(1, 2, 0, 0));
+            assertEquals("none", controller.getLastDecision());
+        }
+        finally {
+            System.clearProperty("com.nhn.test.adaptiveSizing.periodMs");
+        }
+    }
+}
@@ -0,0 +1,964 @@
+package com.nhn.test.pool;
+
+import com.nhn.test.TestConfig;
+import com.nhn.test.TestDataSource;
+import com.nhn.test.TestRoutingDataSource;
+import com.nhn.test.metrics.histogram.HistogramMetricsTracker;
+import com.nhn.test.metrics.histogram.HistogramMetricsTrackerFactory;
+import com.nhn.test.mocks.StubConnection;
+import com.nhn.test.mocks.StubDataSource;
+import com.nhn.test.mocks.StubPreparedStatement;
+import com.nhn.test.mocks.StubStatement;
+import com.nhn.test.pool.TestPool.PoolInitializationException;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Modifier;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.nhn.test.pool.TestElf.getPool;
+import static com.nhn.test.pool.TestElf.newTestConfig;
+import static org.junit.Assert.*;
+
+public class TestConnections
+{
+    @Test
+    public void testGeneratedProxies() throws SQLException
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            TestPool pool = getPool(ds);
+            try (Connection connection = ds.getConnection()) {
+                assertEquals("TestProxyConnection", connection.getClass().getSimpleName());
+                assertTrue(Modifier.isFinal(connection.getClass().getModifiers()));
+                assertEquals(1, pool.getActiveConnections());
+
+                try (Statement statement = connection.createStatement()) {
+                    assertEquals("TestProxyStatement", statement.getClass().getSimpleName());
+                    try (ResultSet resultSet = statement.executeQuery("SELECT 1")) {
+                        assertEquals("TestProxyResultSet", resultSet.getClass().getSimpleName());
+                        assertSame(statement, resultSet.getStatement());
+                    }
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement("SELECT ?")) {
+                    assertEquals("TestProxyPreparedStatement", statement.getClass().getSimpleName());
+                }
+            }
+
+            assertEquals(0, pool.getActiveConnections());
+            assertEquals(1, pool.getIdleConnections());
+        }
+    }
+
+    @Test
+    public void testAsyncAcquisitionWaitsForReturn() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setConnectionTimeout(2000);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            TestPool pool = getPool(ds);
+            Connection first = ds.getConnection();
+
+            CompletableFuture<Connection> pending = ds.getConnectionAsync();
+            assertFalse(pending.isDone());
+            assertEquals(1, pool.getThreadsAwaitingConnection());
+
+            first.close();
+            try (Connection second = pending.get(1, TimeUnit.SECONDS)) {
+                assertNotNull(second);
+                assertEquals(1, pool.getActiveConnections());
+            }
+
+            assertEquals(0, pool.getThreadsAwaitingConnection());
+        }
+    }
+
+    @Test
+    public void testAsyncLeakReportNamesBorrower() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TestElf.setSlf4jTargetStream(ProxyLeakTask.class, new PrintStream(baos, true));
+        TestElf.setConfigUnitTest(true);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setConnectionTimeout(2000);
+        config.setLeakDetectionThreshold(200);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final Connection first = ds.getConnection();
+
+            // queued on thread A, completed by the close() on thread B
+            final CompletableFuture<CompletableFuture<Connection>> request = new CompletableFuture<>();
+            final Thread borrower = new Thread(() -> request.complete(ds.getConnectionAsync()), "async-borrower");
+            borrower.start();
+            final CompletableFuture<Connection> pending = request.get(1, TimeUnit.SECONDS);
+            assertFalse(pending.isDone());
+
+            final Thread returner = new Thread(() -> {
+                try {
+                    first.close();
+                }
+                catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }, "returning-thread");
+            returner.start();
+            returner.join();
+
+            try (Connection connection = pending.get(1, TimeUnit.SECONDS)) {
+                final long start = System.nanoTime();
+                while (!baos.toString().contains("leak detection triggered") && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                    Thread.sleep(50);
+                }
+                final String log = baos.toString();
+                assertTrue(log, log.contains("on thread async-borrower"));
+                assertFalse(log, log.contains("returning-thread"));
+            }
+        }
+        finally {
+            TestElf.setConfigUnitTest(false);
+        }
+    }
+
+    @Test
+    public void testAsyncAcquisitionTimesOut() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(0);
+        config.setMaximumPoolSize(1);
+        config.setConnectionTimeout(250);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            try (Connection ignored = ds.getConnection()) {
+                CompletableFuture<Connection> pending = ds.getConnectionAsync();
+                try {
+                    pending.get(5, TimeUnit.SECONDS);
+                    fail("Acquisition should have timed out");
+                }
+                catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+                }
+
+                assertEquals(0, getPool(ds).getThreadsAwaitingConnection());
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncAcquisitionWhileSuspended() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setConnectionTimeout(250);
+        config.setAllowPoolSuspension(true);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final TestPool pool = getPool(ds);
+
+            // queued until resume, and the timeout only starts then
+            pool.suspendPool();
+            final CompletableFuture<Connection> queued = ds.getConnectionAsync();
+            Thread.sleep(400);
+            assertFalse(queued.isDone());
+            pool.resumePool();
+            queued.get(5, TimeUnit.SECONDS).close();
+
+            // an async request waiting for a connection holds up suspendPool() like a blocked getConnection()
+            final CompletableFuture<Connection> pending;
+            final CompletableFuture<Void> suspended;
+            try (Connection ignored = ds.getConnection()) {
+                pending = pool.getConnectionAsync(5_000);
+                suspended = CompletableFuture.runAsync(pool::suspendPool);
+                Thread.sleep(100);
+                assertFalse("suspend did not wait for the async request", suspended.isDone());
+            }
+            pending.get(5, TimeUnit.SECONDS).close();
+            suspended.get(5, TimeUnit.SECONDS);
+            pool.resumePool();
+        }
+    }
+
+    @Test
+    public void testPreparedStatementCache() throws SQLException
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setPreparedStatementCacheSize(2);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            TestPool pool = getPool(ds);
+
+            PreparedStatement first;
+            try (Connection connection = ds.getConnection()) {
+                first = connection.prepareStatement("SELECT 1");
+                first.close();
+                try (PreparedStatement second = connection.prepareStatement("SELECT 1")) {
+                    assertSame(first.unwrap(PreparedStatement.class), second.unwrap(PreparedStatement.class));
+                }
+            }
+            assertEquals(1, pool.getPreparedStatementCacheHits());
+            assertEquals(1, pool.getPreparedStatementCacheMisses());
+
+            // survives the borrow, and the third distinct statement pushes out the least recently used one
+            try (Connection connection = ds.getConnection()) {
+                connection.prepareStatement("SELECT 1").close();
+                connection.prepareStatement("SELECT 2", ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY).close();
+                assertFalse(first.unwrap(PreparedStatement.class).isClosed());
+                connection.prepareStatement("SELECT 3").close();
+                assertTrue(first.unwrap(PreparedStatement.class).isClosed());
+                connection.prepareStatement("SELECT 4").close();
+            }
+            assertEquals(2, pool.getPreparedStatementCacheHits());
+            assertEquals(4, pool.getPreparedStatementCacheMisses());
+            assertEquals(2, pool.getPreparedStatementCacheEvictions());
+        }
+    }
+
+    @Test
+    public void testPreparedStatementCacheResetsState() throws SQLException
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setPreparedStatementCacheSize(2);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            try (Connection connection = ds.getConnection()) {
+                PreparedStatement statement = connection.prepareStatement("INSERT INTO t VALUES (?)");
+                statement.addBatch();
+                statement.setMaxRows(5);
+                statement.setQueryTimeout(3);
+                statement.setFetchSize(100);
+                statement.close();
+            }
+
+            try (Connection connection = ds.getConnection();
+                 PreparedStatement statement = connection.prepareStatement("INSERT INTO t VALUES (?)")) {
+                final StubPreparedStatement physical = statement.unwrap(StubPreparedStatement.class);
+                assertEquals("the batch of the previous borrower is gone", 0, physical.getBatchSize());
+                assertEquals(0, statement.getMaxRows());
+                assertEquals(0, statement.getQueryTimeout());
+                assertEquals("the driver's default fetch size is restored", 10, statement.getFetchSize());
+
+                statement.setCursorName("c1");
+                statement.close();
+                assertTrue("a statement with a cursor name is not cached", physical.isClosed());
+            }
+        }
+    }
+
+    @Test
+    public void testLeakReportStartsAtCaller() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TestElf.setSlf4jTargetStream(ProxyLeakTask.class, new PrintStream(baos, true));
+        TestElf.setConfigUnitTest(true);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setLeakDetectionThreshold(200);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config);
+             Connection connection = ds.getConnection()) {
+            final long start = System.nanoTime();
+            while (!baos.toString().contains("leak detection triggered") && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(50);
+            }
+
+            // no frames of the pool's own getConnection() overloads above the caller
+            final String log = baos.toString();
+            final String firstFrame = log.substring(log.indexOf("Apparent connection leak detected")).split("\\R")[1].trim();
+            assertTrue(log, firstFrame.startsWith("at " + TestConnections.class.getName() + ".testLeakReportStartsAtCaller"));
+        }
+        finally {
+            TestElf.setConfigUnitTest(false);
+        }
+    }
+
+    @Test
+    public void testSampledLeakDetection() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        TestElf.setSlf4jTargetStream(ProxyLeakTask.class, new PrintStream(baos, true));
+        TestElf.setConfigUnitTest(true);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setLeakDetectionThreshold(200);
+        config.setLeakDetectionSampleRate(1);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final Connection stale = ds.getConnection();
+            stale.close();
+            try (Connection connection = ds.getConnection()) {
+                // evicting a proxy from an earlier borrow must not cancel tracking of this one
+                ds.evictConnection(stale);
+
+                final long start = System.nanoTime();
+                while (!baos.toString().contains("leak detection triggered") && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                    Thread.sleep(50);
+                }
+                assertTrue(baos.toString().contains("stack trace follows"));
+            }
+
+            assertTrue(baos.toString().contains("(unleaked)"));
+        }
+        finally {
+            TestElf.setConfigUnitTest(false);
+        }
+    }
+
+    @Test
+    public void testBackgroundValidation() throws Exception
+    {
+        TestElf.setConfigUnitTest(true);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setBackgroundValidationPeriod(100);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final PoolEntry entry = (PoolEntry) TestElf.getConcurrentBag(ds).values().get(0);
+            final long created = entry.validatedAt;
+
+            final long start = System.nanoTime();
+            while (entry.validatedAt == created && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(20);
+            }
+            assertNotEquals("idle connection was not validated in the background", created, entry.validatedAt);
+
+            // a dead idle connection is closed by the validator and replaced, without a borrow
+            ((StubConnection) entry.connection).throwException = true;
+            while (TestElf.getConcurrentBag(ds).values().contains(entry) && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+                Thread.sleep(20);
+            }
+            assertFalse(TestElf.getConcurrentBag(ds).values().contains(entry));
+
+            try (Connection connection = ds.getConnection()) {
+                assertNotNull(connection);
+            }
+        }
+        finally {
+            TestElf.setConfigUnitTest(false);
+        }
+    }
+
+    @Test
+    public void testParallelBlockingFill() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(4);
+        config.setMaximumPoolSize(4);
+        config.setConnectionCreationConcurrency(4);
+        config.setBlockUntilFilled(true);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        StubConnection.slowCreate = true;
+        final long start = System.nanoTime();
+        try (TestDataSource ds = new TestDataSource(config)) {
+            // each connection takes 1s: the fail-fast check creates one, the other three are created in parallel
+            assertEquals(4, getPool(ds).getTotalConnections());
+            assertTrue("fill was not parallel", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(3500));
+        }
+        finally {
+            StubConnection.slowCreate = false;
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerFailsFast() throws Exception
+    {
+        final StubDataSource stubDataSource = new StubDataSource();
+        final SQLException down = new SQLTransientConnectionException("database is down", "08001");
+        stubDataSource.setThrowException(down);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setInitializationFailTimeout(-1);
+        config.setCircuitBreakerFailureThreshold(2);
+        config.setCircuitBreakerOpenTimeout(500);
+        config.setDataSource(stubDataSource);
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final TestPool pool = getPool(ds);
+            final long start = System.nanoTime();
+            while (!pool.connectionBreaker.isOpen() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(20);
+            }
+            assertTrue(pool.connectionBreaker.isOpen());
+
+            final long borrowStart = System.nanoTime();
+            try (Connection ignored = ds.getConnection()) {
+                fail("circuit breaker is open");
+            }
+            catch (SQLTransientConnectionException e) {
+                assertTrue(e.getMessage().contains("circuit breaker is open"));
+                assertSame(down, e.getCause());
+            }
+            assertTrue("did not fail fast", System.nanoTime() - borrowStart < TimeUnit.MILLISECONDS.toNanos(config.getConnectionTimeout() / 2));
+
+            // a half-open probe closes the breaker once the database is back
+            stubDataSource.setThrowException(null);
+            while (pool.connectionBreaker.isOpen() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(20)) {
+                Thread.sleep(50);
+            }
+            try (Connection connection = ds.getConnection()) {
+                assertNotNull(connection);
+            }
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerReleasesWaitingBorrowers() throws Exception
+    {
+        final StubDataSource stubDataSource = new StubDataSource();
+        final SQLException down = new SQLTransientConnectionException("database is down", "08001");
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(2);
+        config.setConnectionTimeout(10_000);
+        config.setCircuitBreakerFailureThreshold(2);
+        config.setCircuitBreakerOpenTimeout(5_000);
+        config.setDataSource(stubDataSource);
+
+        try (TestDataSource ds = new TestDataSource(config);
+             Connection held = ds.getConnection()) {
+            final TestPool pool = getPool(ds);
+            stubDataSource.setThrowException(down);
+
+            // this borrower queues for the full connection timeout; the failed fills open the breaker and release it
+            final long borrowStart = System.nanoTime();
+            try (Connection ignored = ds.getConnection()) {
+                fail("circuit breaker is open");
+            }
+            catch (SQLTransientConnectionException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("circuit breaker is open"));
+            }
+            assertTrue(pool.connectionBreaker.isOpen());
+            assertTrue("waited for the timeout", System.nanoTime() - borrowStart < TimeUnit.MILLISECONDS.toNanos(config.getConnectionTimeout() / 2));
+            assertNotNull(held);
+        }
+    }
+
+    @Test
+    public void testWaiterCapRejectsImmediately() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setMaximumWaitingRequests(1);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final TestPool pool = getPool(ds);
+            try (Connection held = ds.getConnection()) {
+                final CompletableFuture<Connection> waiting = ds.getConnectionAsync();
+                assertEquals(1, pool.getThreadsAwaitingConnection());
+
+                final long start = System.nanoTime();
+                try (Connection ignored = ds.getConnection()) {
+                    fail("a second waiter should have been rejected");
+                }
+                catch (TestPool.ConnectionRejectedException e) {
+                    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+                }
+                assertEquals(1, pool.getRejectedConnectionRequests());
+
+                held.close();
+                waiting.get(5, TimeUnit.SECONDS).close();
+            }
+        }
+    }
+
+    @Test
+    public void testFailedStartStopsTimerOnSuppliedExecutor() throws Exception
+    {
+        final StubDataSource stubDataSource = new StubDataSource();
+        stubDataSource.setThrowException(new SQLException("database is down"));
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setInitializationFailTimeout(1);
+        config.setScheduledExecutor(executor);
+        config.setDataSource(stubDataSource);
+
+        try (TestDataSource ignored = new TestDataSource(config)) {
+            fail("the pool should not start");
+        }
+        catch (PoolInitializationException e) {
+            assertTrue("tasks left on the supplied executor", executor.getQueue().isEmpty());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTenantConnections() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(2);
+        config.setMaximumPoolSize(2);
+        config.setTenantMaximumConnections(1);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final TestPool pool = getPool(ds);
+
+            final Connection unwrappedA;
+            try (Connection a = ds.getTenantConnection("a")) {
+                unwrappedA = a.unwrap(Connection.class);
+                assertEquals(1, pool.getTenantConnections("a"));
+
+                // tenant "a" is at its maximum, but "b" can take the other connection
+                try (Connection ignored = pool.getTenantConnection("a", 250)) {
+                    fail("tenant a should be limited to one connection");
+                }
+                catch (SQLTransientConnectionException e) {
+                    // expected
+                }
+                try (Connection b = ds.getTenantConnection("b")) {
+                    assertNotSame(unwrappedA, b.unwrap(Connection.class));
+                    assertEquals(1, pool.getTenantConnections("b"));
+                }
+            }
+
+            // the connection already bound to "a" is preferred over the one bound to "b"
+            try (Connection a = ds.getTenantConnection("a")) {
+                assertSame(unwrappedA, a.unwrap(Connection.class));
+            }
+            assertEquals(1, pool.getTenantConnections("a"));
+            assertEquals(1, pool.getTenantConnections("b"));
+        }
+    }
+
+    @Test
+    public void testTenantAndPlainBorrowsMixed() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setTenantMaximumConnections(1);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final TestPool pool = getPool(ds);
+
+            final Connection unwrapped;
+            try (Connection a = ds.getTenantConnection("a")) {
+                unwrapped = a.unwrap(Connection.class);
+                assertEquals("a", unwrapped.getSchema());
+            }
+
+            // a plain borrower gets the connection back in its original schema, no longer bound to the tenant
+            try (Connection plain = ds.getConnection()) {
+                assertSame(unwrapped, plain.unwrap(Connection.class));
+                assertNull(unwrapped.getSchema());
+                assertEquals(0, pool.getTenantConnections("a"));
+            }
+
+            // a tenant at its maximum waits for its own connection to be returned
+            final Connection held = ds.getTenantConnection("a");
+            final CompletableFuture<String> waiter = CompletableFuture.supplyAsync(() -> {
+                try (Connection a = ds.getTenantConnection("a")) {
+                    return a.unwrap(Connection.class).getSchema();
+                }
+                catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(100);
+            assertFalse(waiter.isDone());
+            final long returned = System.nanoTime();
+            held.close();
+            assertEquals("a", waiter.get(5, TimeUnit.SECONDS));
+            assertTrue("not woken when returned", System.nanoTime() - returned < TimeUnit.SECONDS.toNanos(1));
+        }
+
+        config = newTestConfig();
+        config.setTenantMaximumConnections(1);
+        config.setTenantMinimumConnections(2);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+        try (TestDataSource ignored = new TestDataSource(config)) {
+            fail("tenantMinimumConnections above tenantMaximumConnections");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLazyStateReset() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setLazyStateReset(true);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final StubConnection unwrapped;
+            try (Connection connection = ds.getConnection()) {
+                unwrapped = connection.unwrap(StubConnection.class);
+                connection.setAutoCommit(false);
+            }
+            assertFalse("reset should be deferred past close()", unwrapped.getAutoCommit());
+
+            // the next borrower wants autoCommit off as well: no driver call at all
+            try (Connection connection = ds.getConnection()) {
+                unwrapped.throwException = true;
+                connection.setAutoCommit(false);
+                unwrapped.throwException = false;
+            }
+            finally {
+                unwrapped.throwException = false;
+            }
+
+            // one that does not gets the pool default before its first statement
+            try (Connection connection = ds.getConnection()) {
+                assertFalse(unwrapped.getAutoCommit());
+                connection.createStatement().close();
+                assertTrue(unwrapped.getAutoCommit());
+                assertTrue(connection.getAutoCommit());
+            }
+
+            // nor does one that goes to the native connection
+            try (Connection connection = ds.getConnection()) {
+                connection.setAutoCommit(false);
+            }
+            try (Connection connection = ds.getConnection()) {
+                assertFalse(unwrapped.getAutoCommit());
+                assertTrue(connection.unwrap(StubConnection.class).getAutoCommit());
+            }
+        }
+    }
+
+    @Test
+    public void testLazyStateResetAcrossValidation() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setLazyStateReset(true);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        // validate on every borrow
+        System.setProperty("com.nhn.test.aliveBypassWindowMs", "0");
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final StubConnection unwrapped;
+            try (Connection connection = ds.getConnection()) {
+                unwrapped = connection.unwrap(StubConnection.class);
+                connection.setNetworkTimeout(Runnable::run, 5_000);
+            }
+            assertEquals("reset should be deferred past close()", 5_000, unwrapped.getNetworkTimeout());
+
+            Thread.sleep(10);
+
+            // validation put the pool default back, so the same timeout has to reach the driver again
+            try (Connection connection = ds.getConnection()) {
+                assertEquals(0, unwrapped.getNetworkTimeout());
+                connection.setNetworkTimeout(Runnable::run, 5_000);
+                assertEquals(5_000, unwrapped.getNetworkTimeout());
+            }
+        }
+        finally {
+            System.clearProperty("com.nhn.test.aliveBypassWindowMs");
+        }
+    }
+
+    @Test
+    public void testHistogramMetrics() throws Exception
+    {
+        final HistogramMetricsTrackerFactory metrics = new HistogramMetricsTrackerFactory();
+
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setConnectionTimeout(250);
+        config.setPoolName("histogram");
+        config.setMetricsTrackerFactory(metrics);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final HistogramMetricsTracker tracker = metrics.getTracker("histogram");
+            assertNotNull(tracker);
+
+            try (Connection connection = ds.getConnection()) {
+                try (Connection ignored = ds.getConnection()) {
+                    fail("the pool has one connection");
+                }
+                catch (SQLTransientConnectionException e) {
+                    // expected
+                }
+            }
+
+            assertEquals(2, tracker.getConnectionAcquireNanos().snapshot().getCount());
+            assertTrue(tracker.getConnectionAcquireNanos().snapshot().getMax() >= TimeUnit.MILLISECONDS.toNanos(250));
+            assertEquals(1, tracker.getConnectionUsageMillis().snapshot().getCount());
+            assertEquals(1, tracker.getConnectionTimeoutCount());
+        }
+
+        assertNull("the tracker is dropped when the pool shuts down", metrics.getTracker("histogram"));
+    }
+
+    @Test
+    public void testStatementStatistics() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(1);
+        config.setStatementStatistics(true);
+        config.setSlowQueryThreshold(10);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final StatementStatistics statistics = getPool(ds).getStatementStatistics();
+            assertNotNull(statistics);
+
+            try (Connection connection = ds.getConnection();
+                 Statement statement = connection.createStatement();
+                 PreparedStatement prepared = connection.prepareStatement("SELECT * FROM t WHERE id = ?")) {
+                statement.executeQuery("SELECT * FROM t WHERE id = 1");
+                statement.executeUpdate("UPDATE t SET x = 'a' WHERE id = 2");
+                prepared.executeQuery();
+
+                StubStatement.setSimulatedQueryTime(20);
+                try {
+                    prepared.execute();
+                }
+                finally {
+                    StubStatement.setSimulatedQueryTime(0);
+                }
+            }
+
+            final StatementStatistics.QueryStats select = statistics.getQueryStats("SELECT * FROM t WHERE id = ?");
+            assertNotNull(select);
+            assertEquals(3, select.getCount());
+            assertTrue(select.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(select.getPercentileNanos(100) >= select.getPercentileNanos(50));
+            assertEquals(1, statistics.getQueryStats("UPDATE t SET x = ? WHERE id = ?").getCount());
+            assertEquals("slowest fingerprint first", select, statistics.getQueryStats().get(0));
+
+            statistics.reset();
+            assertTrue(statistics.getQueryStats().isEmpty());
+        }
+    }
+
+    @Test
+    public void testHoldTimeAttribution() throws Exception
+    {
+        TestConfig config = newTestConfig();
+        config.setMinimumIdle(1);
+        config.setMaximumPoolSize(2);
+        config.setHoldTimeSampleRate(1);
+        config.setDataSourceClassName(StubDataSource.class.getName());
+
+        try (TestDataSource ds = new TestDataSource(config)) {
+            final HoldTimeStatistics statistics = getPool(ds).getHoldTimeStatistics();
+
+            try (Connection connection = ds.getConnection()) {
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+            try (Connection connection = ds.getTaggedConnection("nightly-report")) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+
+            final HoldTimeStatistics.SiteStats site = statistics.getSiteStats().get(0);
+            assertTrue(site.getSite(), site.getSite().startsWith(TestConnections.class.getName() + ".testHoldTimeAttribution:"));
+            assertEquals(1, site.getCount());
+            assertTrue(site.getMaxMillis() >= 50);
+            assertEquals(1, statistics.getSiteStats("nightly-report").getCount());
+
+            final String[] hotspots = ds.getTestPoolMXBean().getHoldTimeHotspots();
+            assertEquals(2, hotspots.length);
+            assertTrue(hotspots[1], hotspots[1].startsWith("nightly-report (count=1"));
+        }
+    }
+
+    @Test
+    public void testReadOnlyRouting() throws Exception
+    {
+        final TestConfig primaryConfig = newTestConfig();
+        primaryConfig.setPoolName("primary");
+        final TestConfig replica0Config = newTestConfig();
+        replica0Config.setPoolName("replica-0");
+        final TestConfig replica1Config = newTestConfig();
+        replica1Config.setPoolName("replica-1");
+        for (TestConfig config : Arrays.asList(primaryConfig, replica0Config, replica1Config)) {
+            config.setMinimumIdle(0);
+            config.setMaximumPoolSize(2);
+            config.setDataSourceClassName(StubDataSource.class.getName());
+        }
+
+        final AtomicBoolean replica0Healthy = new AtomicBoolean(true);
+        final AtomicInteger checkRounds = new AtomicInteger();
+        // the health check borrows from each replica once a second; the assertions on replica counts run outside that
+        System.setProperty("com.nhn.test.routing.healthCheckPeriodMs", "1000");
+        try (TestRoutingDataSource ds = new TestRoutingDataSource(primaryConfig, Arrays.asList(replica0Config, replica1Config),
+                (replica, connection) -> {
+                    if ("replica-1".equals(replica.getPoolName())) {
+                        checkRounds.incrementAndGet(); // the last replica checked in a round
+                        return true;
+                    }
+                    return replica0Healthy.get();
+                })) {
+            final TestDataSource primary = ds.getPrimary();
+            final TestDataSource replica0 = ds.getReplicas().get(0);
+            final TestDataSource replica1 = ds.getReplicas().get(1);
+
+            try (Connection write = ds.getConnection();
+                 Connection read1 = ds.getReadOnlyConnection();
+                 Connection read2 = ds.getConnection()) {
+                read2.setReadOnly(true);
+                assertEquals("not bound before first use", 0, primary.getTestPoolMXBean().getActiveConnections());
+
+                write.createStatement().close();
+                read1.createStatement().close();
+                read2.createStatement().close();
+                assertEquals(1, primary.getTestPoolMXBean().getActiveConnections());
+                assertEquals("least outstanding spreads the reads", 1, replica0.getTestPoolMXBean().getActiveConnections());
+                assertEquals(1, replica1.getTestPoolMXBean().getActiveConnections());
+            }
+            assertEquals(0, replica0.getTestPoolMXBean().getActiveConnections());
+
+            replica0Healthy.set(false);
+            final long start = System.nanoTime();
+            while (ds.getHealthyReplicaCount() > 1 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(20);
+            }
+            assertEquals(1, ds.getHealthyReplicaCount());
+
+            // start right after a health check round has returned its connections
+            final int round = checkRounds.get();
+            while ((checkRounds.get() == round || replica1.getTestPoolMXBean().getActiveConnections() > 0)
+                    && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+                Thread.sleep(5);
+            }
+
+            try (Connection read1 = ds.getReadOnlyConnection();
+                 Connection read2 = ds.getReadOnlyConnection()) {
+                read1.createStatement().close();
+                read2.createStatement().close();
+                assertEquals(0, replica0.getTestPoolMXBean().getActiveConnections());
+                assertEquals(2, replica1.getTestPoolMXBean().getActiveConnections());
+            }
+        }
+        finally {
+            System.clearProperty("com.nhn.test.routing.healthCheckPeriodMs");
+        }
+    }
+
+    @Test
+    public void testBusyReplicaStaysInRotation() throws Exception
+    {
+        final TestConfig primaryConfig = newTestConfig();
+        primaryConfig.setPoolName("primary");
+        final TestConfig replicaConfig = newTestConfig();
+        replicaConfig.setPoolName("replica-0");
+        for (TestConfig config : Arrays.asList(primaryConfig, replicaConfig)) {
+            config.setMinimumIdle(0);
+            config.setMaximumPoolSize(1);
+            config.setConnectionTimeout(250);
+            config.setDataSourceClassName(StubDataSource.class.getName());
+        }
+
+        try (TestRoutingDataSource ds = new TestRoutingDataSource(primaryConfig, Collections.singletonList(replicaConfig))) {
+            final TestDataSource primary = ds.getPrimary();
+            final TestDataSource replica = ds.getReplicas().get(0);
+
+            try (Connection read1 = ds.getReadOnlyConnection();
+                 Connection read2 = ds.getReadOnlyConnection()) {
+                read1.createStatement().close();
+                assertEquals(1, replica.getTestPoolMXBean().getActiveConnections());
+
+                // the replica times out on this borrow, so it is served by the primary
+                read2.createStatement().close();
+                assertEquals(1, primary.getTestPoolMXBean().getActiveConnections());
+                assertEquals("a busy replica is not taken out of rotation", 1, ds.getHealthyReplicaCount());
+            }
+
+            try (Connection read = ds.getReadOnlyConnection()) {
+                read.createStatement().close();
+                assertEquals(1, replica.getTestPoolMXBean().getActiveConnections());
+            }
+        }
+    }
+
+    @Test
+    public void testBusyReplicaPassesHealthCheck() throws Exception
+    {
+        final TestConfig primaryConfig = newTestConfig();
+        primaryConfig.setPoolName("primary");
+        final TestConfig replicaConfig = newTestConfig();
+        replicaConfig.setPoolName("replica-0");
+        for (TestConfig config : Arrays.asList(primaryConfig, replicaConfig)) {
+            config.setMinimumIdle(0);
+            config.setMaximumPoolSize(1);
+            config.setConnectionTimeout(250);
+            config.setDataSourceClassName(StubDataSource.class.getName());
+        }
+
+        final AtomicInteger checks = new AtomicInteger();
+        System.setProperty("com.nhn.test.routing.healthCheckPeriodMs", "50");
+        System.setProperty("com.nhn.test.routing.healthCheckTimeoutMs", "50");
+        try (TestRoutingDataSource ds = new TestRoutingDataSource(primaryConfig, Collections.singletonList(replicaConfig),
+                (replica, connection) -> checks.incrementAndGet() > 0)) {
+            final TestDataSource replica = ds.getReplicas().get(0);
+            final long start = System.nanoTime();
+            while (checks.get() == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+                Thread.sleep(5);
+            }
+
+            try (Connection read = ds.getReadOnlyConnection()) {
+                read.createStatement().close();
+                assertEquals(1, replica.getTestPoolMXBean().getActiveConnections());
+
+                // the probes time out on the held connection: the replica is busy, not broken
+                Thread.sleep(500);
+                assertEquals(1, ds.getHealthyReplicaCount());
+            }
+        }
+        finally {
+            System.clearProperty("com.nhn.test.routing.healthCheckPeriodMs");
+            System.clearProperty("com.nhn.test.routing.healthCheckTimeoutMs");
+        }
+    }
+}
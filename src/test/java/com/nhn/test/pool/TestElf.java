@@ -179,6 +179,9 @@ public final class TestElf
         public void append(final LogEvent event)
         {
             stream.println(event.getMessage().getFormattedMessage());
+            if (event.getThrown() != null) {
+                event.getThrown().printStackTrace(stream);
+            }
         }
     }
 
@@ -0,0 +1,48 @@
+package com.nhn.test.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    @Test
+    public void testOpensAfterConsecutiveFailuresAndProbesOnce() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(3, 50);
+
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess(); // resets the streak
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.tryAcquirePermission());
+        assertFalse(breaker.isOpen());
+
+        assertTrue("opened by this failure", breaker.onFailure());
+        assertTrue(breaker.isOpen());
+        assertFalse("already open", breaker.onFailure());
+        assertFalse(breaker.tryAcquirePermission());
+
+        Thread.sleep(60);
+        assertTrue("half-open probe", breaker.tryAcquirePermission());
+        assertFalse("only one probe at a time", breaker.tryAcquirePermission());
+
+        assertTrue("the probe failed, open again", breaker.onFailure());
+        assertFalse(breaker.tryAcquirePermission());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    public void testDisabledNeverOpens() {
+        final CircuitBreaker breaker = new CircuitBreaker(0, 50);
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+}
@@ -0,0 +1,337 @@
+package com.nhn.test.util;
+
+import com.nhn.test.mocks.StubBagEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.nhn.test.util.ConcurrentBag.IConcurrentBagEntry.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class ConcurrentBagTest {
+    private ConcurrentBag<StubBagEntry> bag;
+
+    @Before
+    public void setup() {
+        bag = new ConcurrentBag<>(waiting -> {});
+    }
+
+    @After
+    public void teardown() {
+        bag.close();
+    }
+
+    @Test
+    public void testEntriesSpreadAcrossStripes() throws InterruptedException {
+        final int entries = bag.getStripeCount() * 3;
+        for (int i = 0; i < entries; i++) {
+            bag.add(new StubBagEntry());
+        }
+
+        assertEquals(entries, bag.size());
+        assertEquals(entries, bag.values().size());
+        assertEquals(entries, bag.values(STATE_NOT_IN_USE).size());
+
+        final List<StubBagEntry> borrowed = new ArrayList<>();
+        for (int i = 0; i < entries; i++) {
+            final StubBagEntry entry = bag.borrow(10, MILLISECONDS);
+            assertNotNull("Entry " + i + " should have been found in some stripe", entry);
+            borrowed.add(entry);
+        }
+
+        assertNull(bag.borrow(10, MILLISECONDS));
+        assertEquals(entries, bag.getCount(STATE_IN_USE));
+
+        for (StubBagEntry entry : borrowed) {
+            assertTrue(bag.remove(entry));
+        }
+        assertEquals(0, bag.size());
+        assertTrue(bag.values().isEmpty());
+    }
+
+    @Test
+    public void testStateCountsTrackTransitions() throws InterruptedException {
+        final StubBagEntry first = new StubBagEntry();
+        final StubBagEntry second = new StubBagEntry();
+        final StubBagEntry third = new StubBagEntry();
+        bag.add(first);
+        bag.add(second);
+        bag.add(third);
+        assertArrayEquals(new int[] {3, 0, 0, 0, 3, 0}, bag.getStateCounts());
+
+        final StubBagEntry borrowed = bag.borrow(10, MILLISECONDS);
+        assertNotNull(borrowed);
+        assertTrue(bag.reserve(borrowed == first ? second : first));
+        assertArrayEquals(new int[] {1, 1, 0, 1, 3, 0}, bag.getStateCounts());
+
+        bag.requite(borrowed);
+        assertEquals(2, bag.getCount(STATE_NOT_IN_USE));
+        assertEquals(0, bag.getCount(STATE_IN_USE));
+
+        assertTrue(bag.remove(borrowed == first ? second : first));
+        assertArrayEquals(new int[] {2, 0, 0, 0, 2, 0}, bag.getStateCounts());
+
+        assertTrue(bag.reserve(third));
+        bag.unreserve(third);
+        assertEquals(2, bag.getCount(STATE_NOT_IN_USE));
+        assertEquals(0, bag.getCount(STATE_RESERVED));
+    }
+
+    @Test
+    public void testStateCountsIgnoreInvalidTransitions() throws InterruptedException {
+        final StubBagEntry entry = new StubBagEntry();
+        bag.add(entry);
+
+        bag.requite(entry); // not borrowed
+        assertArrayEquals(new int[] {1, 0, 0, 0, 1, 0}, bag.getStateCounts());
+
+        assertSame(entry, bag.borrow(10, MILLISECONDS));
+        assertTrue(bag.remove(entry));
+        bag.requite(entry); // returned by its borrower after removal
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0, 0}, bag.getStateCounts());
+
+        final StubBagEntry stranger = new StubBagEntry();
+        stranger.setState(STATE_IN_USE);
+        assertFalse(bag.remove(stranger)); // never added
+        assertArrayEquals(new int[] {0, 0, 0, 0, 0, 0}, bag.getStateCounts());
+    }
+
+    @Test
+    public void testConcurrentBorrowNeverSharesEntry() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            bag.add(new StubBagEntry());
+        }
+
+        final int threads = 16;
+        final AtomicInteger inUse = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2_000; i++) {
+                        final StubBagEntry entry = bag.borrow(1_000, MILLISECONDS);
+                        if (entry != null) {
+                            if (inUse.incrementAndGet() > 4) {
+                                violations.incrementAndGet();
+                            }
+                            inUse.decrementAndGet();
+                            bag.requite(entry);
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        done.await();
+        assertEquals(0, violations.get());
+        assertEquals(4, bag.getCount(STATE_NOT_IN_USE));
+        assertEquals(0, bag.getCount(STATE_IN_USE));
+    }
+
+    @Test
+    public void testAsyncWaiterCompletedByRequite() throws InterruptedException {
+        final StubBagEntry entry = new StubBagEntry();
+        bag.add(entry);
+
+        final CompletableFuture<StubBagEntry> first = bag.borrowAsync();
+        assertTrue(first.isDone());
+        assertSame(entry, first.join());
+
+        final CompletableFuture<StubBagEntry> second = bag.borrowAsync();
+        assertFalse(second.isDone());
+        assertEquals(1, bag.getWaitingThreadCount());
+        assertEquals("async waiters count as waiting", 1, bag.getStateCounts()[5]);
+
+        bag.requite(entry);
+        assertTrue(second.isDone());
+        assertSame(entry, second.join());
+        assertEquals(STATE_IN_USE, entry.getState());
+        assertEquals(0, bag.getWaitingThreadCount());
+        assertEquals(1, bag.getCount(STATE_IN_USE));
+    }
+
+    @Test
+    public void testWithdrawnAsyncWaiterIsSkipped() throws InterruptedException {
+        final CompletableFuture<StubBagEntry> abandoned = bag.borrowAsync();
+        final CompletableFuture<StubBagEntry> waiting = bag.borrowAsync();
+        assertEquals(2, bag.getWaitingThreadCount());
+
+        assertTrue(abandoned.complete(null));
+        assertEquals(1, bag.getWaitingThreadCount());
+
+        final StubBagEntry entry = new StubBagEntry();
+        bag.add(entry);
+        assertSame(entry, waiting.join());
+
+        bag.requite(entry);
+        assertEquals(0, bag.getWaitingThreadCount());
+        assertEquals(1, bag.getCount(STATE_NOT_IN_USE));
+
+        final CompletableFuture<StubBagEntry> immediate = bag.borrowAsync();
+        assertTrue(immediate.isDone());
+        assertSame(entry, immediate.join());
+
+        final CompletableFuture<StubBagEntry> orphan = bag.borrowAsync();
+        bag.close();
+        assertNull(orphan.join());
+    }
+
+    @Test
+    public void testReleaseWaitersWakesBlockedAndAsync() throws InterruptedException {
+        final CompletableFuture<StubBagEntry> async = bag.borrowAsync();
+        final CompletableFuture<StubBagEntry> blocked = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                blocked.complete(bag.borrow(10_000, MILLISECONDS));
+            }
+            catch (InterruptedException e) {
+                blocked.completeExceptionally(e);
+            }
+        });
+        thread.start();
+        while (bag.getWaitingThreadCount() < 2) {
+            Thread.sleep(5);
+        }
+
+        final long start = System.nanoTime();
+        bag.releaseWaiters();
+        thread.join(5_000);
+        assertNull(async.join());
+        assertNull(blocked.join());
+        assertTrue("not released early", System.nanoTime() - start < MILLISECONDS.toNanos(5_000));
+        assertEquals(0, bag.getWaitingThreadCount());
+
+        // an entry added afterwards stays idle rather than being handed to a released waiter
+        final StubBagEntry entry = new StubBagEntry();
+        bag.add(entry);
+        assertEquals(STATE_NOT_IN_USE, entry.getState());
+    }
+
+    @Test
+    public void testHandoffByPriorityThenDeadline() throws InterruptedException {
+        final ConcurrentLinkedQueue<String> served = new ConcurrentLinkedQueue<>();
+        final List<Thread> threads = new ArrayList<>();
+        threads.add(waiter("low", -1, 5_000, served));
+        threads.add(waiter("normal", 0, 5_000, served));
+        threads.add(waiter("normal-urgent", 0, 3_000, served));
+        threads.add(waiter("high", 1, 5_000, served));
+        threads.forEach(Thread::start);
+
+        final long start = System.nanoTime();
+        while (bag.getWaitingThreadCount() < 4 && System.nanoTime() - start < MILLISECONDS.toNanos(2_000)) {
+            Thread.sleep(5);
+        }
+        assertEquals(4, bag.getWaitingThreadCount());
+
+        for (int i = 1; i <= 4; i++) {
+            bag.add(new StubBagEntry());
+            while (served.size() < i && System.nanoTime() - start < MILLISECONDS.toNanos(2_000)) {
+                Thread.sleep(1);
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertArrayEquals(new String[] {"high", "normal-urgent", "normal", "low"}, served.toArray(new String[0]));
+        assertEquals(4, bag.getCount(STATE_IN_USE));
+    }
+
+    @Test
+    public void testSyncAndAsyncWaitersShareDeadlineOrder() throws InterruptedException {
+        final ConcurrentLinkedQueue<String> served = new ConcurrentLinkedQueue<>();
+        final CompletableFuture<StubBagEntry> asyncLate = bag.borrowAsync(5_000, MILLISECONDS);
+        asyncLate.thenRun(() -> served.add("async-late"));
+        final Thread syncUrgent = waiter("sync-urgent", 0, 3_000, served);
+        syncUrgent.start();
+
+        final long start = System.nanoTime();
+        while (bag.getWaitingThreadCount() < 2 && System.nanoTime() - start < MILLISECONDS.toNanos(2_000)) {
+            Thread.sleep(5);
+        }
+        final CompletableFuture<StubBagEntry> asyncUrgent = bag.borrowAsync(1_000, MILLISECONDS);
+        asyncUrgent.thenRun(() -> served.add("async-urgent"));
+        assertEquals(3, bag.getWaitingThreadCount());
+
+        bag.add(new StubBagEntry());
+        bag.add(new StubBagEntry());
+        syncUrgent.join();
+        assertArrayEquals(new String[] {"async-urgent", "sync-urgent"}, served.toArray(new String[0]));
+        assertFalse("the async waiter with the latest deadline is served last", asyncLate.isDone());
+
+        bag.add(new StubBagEntry());
+        assertNotNull(asyncLate.join());
+    }
+
+    @Test
+    public void testFilteredWaiterOnlyTakesMatchingEntries() throws Exception {
+        final StubBagEntry wanted = new StubBagEntry();
+        final AtomicBoolean acceptAny = new AtomicBoolean();
+        final CompletableFuture<StubBagEntry> filtered = CompletableFuture.supplyAsync(() -> {
+            try {
+                return bag.borrow(5_000, MILLISECONDS, 1, entry -> entry == wanted || acceptAny.get());
+            }
+            catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final ConcurrentLinkedQueue<String> served = new ConcurrentLinkedQueue<>();
+        final Thread plain = waiter("plain", 0, 5_000, served);
+
+        final long start = System.nanoTime();
+        while (bag.getWaitingThreadCount() < 1 && System.nanoTime() - start < MILLISECONDS.toNanos(2_000)) {
+            Thread.sleep(5);
+        }
+        plain.start();
+        while (bag.getWaitingThreadCount() < 2 && System.nanoTime() - start < MILLISECONDS.toNanos(2_000)) {
+            Thread.sleep(5);
+        }
+
+        // the more urgent filtered waiter passes the entry over to the plain one queued behind it
+        bag.add(new StubBagEntry());
+        plain.join();
+        assertArrayEquals(new String[] {"plain"}, served.toArray(new String[0]));
+        assertFalse(filtered.isDone());
+
+        // an idle entry it rejected is offered again once the filter may accept it
+        final StubBagEntry other = new StubBagEntry();
+        bag.add(other);
+        assertFalse(filtered.isDone());
+        acceptAny.set(true);
+        bag.offerIdle();
+        assertSame(other, filtered.get(2, SECONDS));
+
+        bag.add(wanted);
+        assertSame(wanted, bag.borrow(5_000, MILLISECONDS, 0, entry -> entry == wanted));
+    }
+
+    private Thread waiter(final String name, final int priority, final long timeoutMs, final ConcurrentLinkedQueue<String> served) {
+        return new Thread(() -> {
+            try {
+                if (bag.borrow(timeoutMs, MILLISECONDS, priority) != null) {
+                    served.add(name);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+    }
+}
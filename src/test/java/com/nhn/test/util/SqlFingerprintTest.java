@@ -0,0 +1,28 @@
+package com.nhn.test.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SqlFingerprintTest {
+    @Test
+    public void testLiteralsStripped() {
+        assertEquals("SELECT * FROM t1 WHERE id = ? AND name = ? AND score > ?",
+                SqlFingerprint.of("SELECT *  FROM t1\n WHERE id = 42 AND name = 'O''Brien' AND score > -1.5e3"));
+        assertEquals(SqlFingerprint.of("select a from b where c = 1"), SqlFingerprint.of("select a from b where c = 2"));
+    }
+
+    @Test
+    public void testPlaceholderLists() {
+        assertEquals("SELECT a FROM b WHERE c IN (?+)", SqlFingerprint.of("SELECT a FROM b WHERE c IN (1, 2, 3)"));
+        assertEquals("INSERT INTO b VALUES (?+)", SqlFingerprint.of("INSERT INTO b VALUES (?,?,?)"));
+        assertEquals("SELECT f(?)", SqlFingerprint.of("SELECT f(?)"));
+    }
+
+    @Test
+    public void testCommentsAndQuotedIdentifiers() {
+        assertEquals("SELECT \"col 1\" FROM t WHERE x = ?",
+                SqlFingerprint.of("/* report */ SELECT \"col 1\" -- the column\n FROM t WHERE x = 'y'"));
+        assertEquals("SELECT $1, c2 FROM t", SqlFingerprint.of("SELECT $1, c2 FROM t"));
+    }
+}
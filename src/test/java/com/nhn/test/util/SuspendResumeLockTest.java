@@ -0,0 +1,101 @@
+package com.nhn.test.util;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class SuspendResumeLockTest {
+    @Test
+    public void testSuspendDrainsInFlightAcquisitions() throws Exception {
+        final SuspendResumeLock lock = new SuspendResumeLock();
+        lock.acquire();
+        assertEquals(1, lock.inFlightCount());
+
+        final CountDownLatch suspended = new CountDownLatch(1);
+        final Thread suspender = new Thread(() -> {
+            lock.suspend();
+            suspended.countDown();
+        });
+        suspender.start();
+
+        assertFalse("suspend() must wait for the in-flight acquisition", suspended.await(200, MILLISECONDS));
+        lock.release();
+        assertTrue(suspended.await(5, SECONDS));
+        assertEquals(0, lock.inFlightCount());
+        lock.resume();
+    }
+
+    @Test
+    public void testAcquireBlocksUntilResume() throws Exception {
+        final SuspendResumeLock lock = new SuspendResumeLock();
+        lock.suspend();
+
+        final AtomicBoolean acquired = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread acquirer = new Thread(() -> {
+            try {
+                lock.acquire();
+                acquired.set(true);
+                lock.release();
+            }
+            catch (SQLException e) {
+                // fall through, acquired stays false
+            }
+            finally {
+                done.countDown();
+            }
+        });
+        acquirer.start();
+
+        assertFalse(done.await(200, MILLISECONDS));
+        assertFalse(acquired.get());
+
+        lock.resume();
+        assertTrue(done.await(5, SECONDS));
+        assertTrue(acquired.get());
+        assertEquals(0, lock.inFlightCount());
+    }
+
+    @Test
+    public void testTryAcquireReleasedFromAnotherThread() throws Exception {
+        final SuspendResumeLock lock = new SuspendResumeLock();
+        final int cell = lock.tryAcquire();
+        assertTrue(cell >= 0);
+        assertTrue(lock.whenResumed().isDone());
+
+        final Thread releaser = new Thread(() -> lock.release(cell));
+        releaser.start();
+        releaser.join();
+        assertEquals(0, lock.inFlightCount());
+
+        lock.suspend();
+        assertEquals(-1, lock.tryAcquire());
+        final CompletableFuture<Void> resumed = lock.whenResumed();
+        assertFalse(resumed.isDone());
+        lock.resume();
+        assertTrue(resumed.isDone());
+        assertEquals(0, lock.inFlightCount());
+    }
+
+    @Test(expected = SQLTransientException.class)
+    public void testThrowIfSuspended() throws SQLException {
+        final SuspendResumeLock lock = new SuspendResumeLock();
+        lock.suspend();
+        System.setProperty("com.zaxxer.hikari.throwIfSuspended", "true");
+        try {
+            lock.acquire();
+        }
+        finally {
+            System.clearProperty("com.zaxxer.hikari.throwIfSuspended");
+            lock.resume();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.nhn.test.util;
+
+import com.nhn.test.util.TimerWheel.Timeout;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+    @Test
+    public void testExpiresAfterDelayAcrossRounds() throws InterruptedException {
+        // 8 ticks of 5ms per round, so a 100ms timeout needs several rounds
+        final TimerWheel wheel = new TimerWheel(5, MILLISECONDS, 8);
+        final AtomicInteger fired = new AtomicInteger();
+        final AtomicLong firedAt = new AtomicLong();
+
+        final long start = System.nanoTime();
+        final Timeout soon = wheel.schedule(fired::incrementAndGet, 10, MILLISECONDS);
+        final Timeout later = wheel.schedule(() -> firedAt.set(System.nanoTime()), 100, MILLISECONDS);
+        assertEquals(2, wheel.size());
+
+        while (!later.isDone() && System.nanoTime() - start < MILLISECONDS.toNanos(5_000)) {
+            wheel.tick();
+            Thread.sleep(1);
+        }
+
+        assertTrue(soon.isDone());
+        assertTrue(later.isDone());
+        assertFalse(later.isCancelled());
+        assertEquals(1, fired.get());
+        assertTrue("timeout fired early", firedAt.get() - start >= MILLISECONDS.toNanos(100));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancelledTimeoutNeverRuns() throws InterruptedException {
+        final TimerWheel wheel = new TimerWheel(1, MILLISECONDS, 4);
+        final AtomicInteger fired = new AtomicInteger();
+
+        final Timeout cancelledBeforeTransfer = wheel.schedule(fired::incrementAndGet, 5, MILLISECONDS);
+        assertTrue(cancelledBeforeTransfer.cancel());
+
+        final Timeout cancelledInBucket = wheel.schedule(fired::incrementAndGet, 20, MILLISECONDS);
+        Thread.sleep(3);
+        wheel.tick();
+        assertTrue(cancelledInBucket.cancel());
+        assertFalse("cancel is idempotent", cancelledInBucket.cancel());
+
+        Thread.sleep(30);
+        wheel.tick();
+
+        assertEquals(0, fired.get());
+        assertTrue(cancelledBeforeTransfer.isCancelled());
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,31 @@
+package com.nhn.test.util;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    @Test
+    public void testBurstThenRateLimited() {
+        final TokenBucket bucket = new TokenBucket(20);
+        for (int i = 0; i < 20; i++) {
+            assertTrue("burst of one second's worth", bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+
+        // the next token refills 50ms later
+        final long start = System.nanoTime();
+        bucket.acquire();
+        bucket.acquire();
+        assertTrue(System.nanoTime() - start >= MILLISECONDS.toNanos(90));
+    }
+
+    @Test
+    public void testUnlimited() {
+        final TokenBucket bucket = new TokenBucket(0);
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+    }
+}
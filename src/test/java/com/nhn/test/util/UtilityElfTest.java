@@ -3,6 +3,7 @@ package com.nhn.test.util;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class UtilityElfTest {
     @Test
@@ -35,4 +36,10 @@ public class UtilityElfTest {
         //Act
         UtilityElf.getTransactionIsolation("9999");
     }
+
+    @Test
+    public void shouldNotReportPlatformThreadAsVirtual()
+    {
+        assertFalse(UtilityElf.isVirtualThread(Thread.currentThread()));
+    }
 }